@@ -1,35 +1,23 @@
 /**
- * A Staging Environment for the next Propnet
+ * The flat, array-backed Propnet. Every component is identified by its
+ * componentId and all of the values and And/Or counters live in primitive
+ * arrays, so propagation never touches a Component object.
+ *
+ * The read-only part of the net lives in a TeapotPropnetTopology, which can be
+ * shared between many instances (one per search thread).
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
-import org.ggp.base.util.gdl.grammar.GdlConstant;
-import org.ggp.base.util.gdl.grammar.GdlDistinct;
-import org.ggp.base.util.gdl.grammar.GdlFunction;
-import org.ggp.base.util.gdl.grammar.GdlLiteral;
-import org.ggp.base.util.gdl.grammar.GdlPool;
-import org.ggp.base.util.gdl.grammar.GdlRelation;
-import org.ggp.base.util.gdl.grammar.GdlRule;
-import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
-import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
-import org.ggp.base.util.propnet.architecture.components.And;
-import org.ggp.base.util.propnet.architecture.components.Constant;
-import org.ggp.base.util.propnet.architecture.components.Not;
-import org.ggp.base.util.propnet.architecture.components.Or;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
-import org.ggp.base.util.propnet.architecture.components.Transition;
-import org.ggp.base.util.propnet.factory.LegacyPropNetFactory;
-import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -37,23 +25,20 @@ import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
 
-public class TeapotBetaPropnetStateMachine extends StateMachine {
-
-	// TODO: Make NOT fast
-	// TODO: External Representation
+public class TeapotBetaPropnetStateMachine extends StateMachine implements TeapotIndexedStateMachine {
 
 	// MARK: - Constants
-	private static final int AND_COMP = 0;
-	private static final int CONSTANT_COMP = 1;
-	private static final int NOT_COMP = 2;
-	private static final int OR_COMP = 3;
-	private static final int PROPOSITION_COMP = 4;
-	private static final int TRANSITION_COMP = 5;
+	private static final int NO_COMPONENT = TeapotPropnetTopology.NO_COMPONENT;
+
+	/** Folded away by the JIT unless run with -Dteapot.profile=true **/
+	private static final boolean PROFILE = TeapotPropnetProfiler.ENABLED;
 
 	// MARK: - Variables
 
+	/** The Shared Topology **/
+	private TeapotPropnetTopology topology;
+
 	/** The PropNet **/
 	public PropNet propnet;
 
@@ -63,155 +48,117 @@ public class TeapotBetaPropnetStateMachine extends StateMachine {
 	/** Roles **/
 	private List<Role> roles;
 
-	/** Zero Sum **/
-	private boolean zeroSum = true;
-
-	/** All Base Props **/
-	private Proposition[] basePropositions;
-
-	/** All Input Props **/
-	private Proposition[] inputPropositions;
-
-	/** Maps Inputs **/
-	private ArrayList<Map<GdlTerm, GdlSentence>> inputMap;
-
-	/** Maps Role and Legals **/
-	private Map<Role, Proposition[]> legalPropositions;
-
-	/** External Representation: Metadata **/
+	/** External Representation: Metadata (type, #inputs, #outputs, offset) **/
 	private int[] externalRepMetadata = null;
 
 	/** External Representation: Outputs **/
 	private int[] externalRepOutputs = null;
 
-	@Override
-	public void initialize(List<Gdl> description) {
-		this.description = this.sanitizeDistinct(description);
-
-		// Create the PropNet State Machine
-		try {
-			this.propnet = OptimizingPropNetFactory.create(this.description);
-		} catch (InterruptedException e) {
-			this.propnet = LegacyPropNetFactory.create(this.description);
-		}
-
-		// Get the Roles
-		this.roles = this.propnet.getRoles();
-
-		// Determine Zero-Sum Property
-		this.determineZeroSum();
-		if (this.zeroSum) System.out.println("[PropNet] This Game is ZeroSum");
-		else System.out.println("[PropNet] This Game is NOT ZeroSum");
-
-		// mark input/bases
-		for (Proposition p : this.propnet.getInputPropositions().values()) p.setInput(true);
-		for (Proposition p : this.propnet.getBasePropositions().values()) p.setBase(true);
-		for (Role r : this.propnet.getRoles()) {
-			for (Proposition p : this.propnet.getLegalPropositions().get(r)) p.setLegal(true);
-			for (Proposition p : this.propnet.getGoalPropositions().get(r))  p.setGoal(true);
-		}
-
-		// Optimization
-		this.optimizeViewPropositions();
+	/** External Representation: Component Values (per instance) **/
+	private boolean[] externalRepValues = null;
 
-		// Conversion into External Representation
-		this.externalRepMetadata = new int[4 * this.propnet.getComponents().size()];
+	/** External Representation: Number of True Inputs (per instance) **/
+	private int[] externalRepCounters = null;
 
-		int identifier = 0, offset = 0;
-		for (Component c : this.propnet.getComponents()) {
-			c.componentId = identifier;
-			TeapotBetaPropnetStateMachine.externalRepSetMetadata(this.externalRepMetadata, identifier, c, offset);
-			identifier++;
-			offset += c.numberOfOutputs();
-		}
-
-		this.externalRepOutputs = new int[offset];
-		for (Component c : this.propnet.getComponents()) {
-			int loc = this.externalRepMetadata[4 * c.componentId + 3];
-			for (Component cc : c.getOutputs()) {
-				this.externalRepOutputs[loc] = cc.componentId;
-				loc++;
-			}
-		}
+	/** Shared Indices into the External Representation **/
+	private int[] baseIds;
+	private int[] transitionIds;
+	private long[] zobristKeys;
+	private int[][] legalIds;
+	private int[][] legalInputIds;
+	private int[][] goalIds;
+	private int[][] goalValues;
+	private int terminalId;
+	private int initId;
+	private Move[][] legalMoves;
+	private List<Map<GdlTerm, Integer>> inputMap;
 
-		// Crystalization and Finalization
-		for (Component c : this.propnet.getComponents()) c.crystalize();
+	/** Input Proposition IDs currently marked, indexed by role (per instance) **/
+	private int[] markedInputs;
 
-		this.basePropositions = new Proposition[this.propnet.getBasePropositions().size()];
-		this.inputPropositions = new Proposition[this.propnet.getInputPropositions().size()];
-		this.legalPropositions = new HashMap<>();
+	/** Base values currently loaded into the net, and scratch for the bases to flip (per instance) **/
+	private BitSet loadedBases;
+	private BitSet flippedBases;
 
-		for (Component c : this.propnet.getComponents()) {
-			if ((c instanceof Constant)) c.setPreviousValue(!c.getValue());
-			else c.setPreviousValue(false);
-		}
+	/** Visit and flip counters, only when profiling (per instance) **/
+	private TeapotPropnetProfiler profiler = null;
 
-		List<Proposition> bases = new ArrayList<Proposition>(this.propnet.getBasePropositions().values());
-		for (int i = 0; i < this.basePropositions.length; i++) {
-			this.basePropositions[i] = bases.get(i);
-			this.basePropositions[i].setBase(true);
-		}
+	/** Bit-parallel simulator for batched depth charges, created on first use **/
+	private TeapotBitParallelPropnet batchSimulator;
+	private int[][] batchGoals;
 
-		List<Proposition> inputs = new ArrayList<Proposition>(this.propnet.getInputPropositions().values());
-		for (int i = 0; i < this.inputPropositions.length; i++) {
-			this.inputPropositions[i] = inputs.get(i);
-			this.inputPropositions[i].setInput(true);
-		}
+	/** State and legal move scratch for fused depth charges, created on first use **/
+	private TeapotPropnetState playoutState;
+	private int[] playoutLegals;
 
-		Map<Role, Set<Proposition>> legalprops = this.propnet.getLegalPropositions();
-		for (Role r : this.roles) {
-			Set<Proposition> legals = legalprops.get(r);
-			Proposition[] ps = new Proposition[legals.size()];
-			int i = 0;
-			for (Proposition p : legals) {
-				ps[i] = p;
-				i++;
-			}
-			this.legalPropositions.put(r, ps);
-		}
+	/**
+	 * Creates an empty machine; the topology is built in initialize.
+	 */
+	public TeapotBetaPropnetStateMachine() {
+	}
 
-		this.inputMap = new ArrayList<>();
-		for (Role r : this.roles) {
-			Set<Proposition> moves = this.propnet.getLegalPropositions().get(r);
-			Map<GdlTerm, GdlSentence> buf = new HashMap<>();
-			for (Proposition p : moves) {
-				GdlSentence moveSentence = ProverQueryBuilder.toDoes(r, new Move(p.getName().get(1)));
-				buf.put(p.getName().get(1), moveSentence);
-			}
-			this.inputMap.add(buf);
-		}
+	/**
+	 * Creates a machine sharing an already compiled topology. The machine is
+	 * ready to use and does not need to be initialized.
+	 */
+	public TeapotBetaPropnetStateMachine(TeapotPropnetTopology topology) {
+		this.attach(topology);
+	}
 
+	@Override
+	public void initialize(List<Gdl> description) {
+		this.attach(TeapotPropnetTopology.create(description));
 		System.out.println("[PropNet] Finished Initializing StateMachine");
 	}
 
+	/**
+	 * Creates another machine over the same topology, for use on another thread.
+	 */
+	public TeapotBetaPropnetStateMachine createInstance() {
+		TeapotBetaPropnetStateMachine instance = new TeapotBetaPropnetStateMachine(this.topology);
+		if (PROFILE) instance.profiler = this.profiler.fork();
+		return instance;
+	}
+
 	@Override
 	public List<Move> findActions(Role role) throws MoveDefinitionException {
-		Set<Proposition> legalProps = this.propnet.getLegalPropositions().get(role);
-		ArrayList<Move> legalMoves = new ArrayList<Move>();
-		for (Proposition p : legalProps) {
-			legalMoves.add(TeapotPropnetStateMachine.getMoveFromProposition(p));
-		}
-		return legalMoves;
+		return Arrays.asList(this.legalMoves[this.getRoleIndices().get(role)]);
 	}
 
 	@Override
 	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
 		this.markbases(state);
-		for (Component c : this.basePropositions) forwardprop(c);
 
-		Set<Proposition> goalProps = this.propnet.getGoalPropositions().get(role);
-		for (Proposition p : goalProps) {
-			if (p.getValue()) return this.getGoalValue(p);
+		int r = this.getRoleIndices().get(role);
+		int[] ids = this.goalIds[r];
+		for (int i = 0; i < ids.length; i++) {
+			if (this.externalRepValues[ids[i]]) return this.goalValues[r][i];
 		}
 
 		return 0;
 	}
 
+	@Override
+	public int[] getGoalValues(MachineState state) throws GoalDefinitionException {
+		this.markbases(state);
+
+		int[] goals = new int[this.goalIds.length];
+		for (int r = 0; r < goals.length; r++) {
+			int[] ids = this.goalIds[r];
+			for (int i = 0; i < ids.length; i++) {
+				if (this.externalRepValues[ids[i]]) {
+					goals[r] = this.goalValues[r][i];
+					break;
+				}
+			}
+		}
+		return goals;
+	}
+
 	@Override
 	public boolean isTerminal(MachineState state) {
 		this.markbases(state);
-		for (Component c : this.basePropositions) forwardprop(c);
-		return this.propnet.getTerminalProposition().getValue();
+		return this.externalRepValues[this.terminalId];
 	}
 
 	@Override
@@ -221,259 +168,380 @@ public class TeapotBetaPropnetStateMachine extends StateMachine {
 
 	@Override
 	public MachineState getInitialState() {
-		for (Component c : this.propnet.getComponents()) { // check what subclass of component
-			if ((c instanceof And)) ((And) c).useFastMethod = true;
-			if ((c instanceof Or)) ((Or) c).useFastMethod = true;
-			if ((c instanceof Transition)) ((Transition) c).useFastMode = true;
-		}
-		for (Component c : this.propnet.getComponents()) if ((c instanceof Constant)) forwardprop(c);
-		Proposition initProp = this.propnet.getInitProposition();
-		if (initProp != null) {
-			this.propnet.getInitProposition().setValue(true);
-			for (Component c : this.propnet.getComponents()) if ((c instanceof Not)) forwardprop(c);
-			forwardprop(this.propnet.getInitProposition());
-		}
+		// Start from the empty state with no moves marked
+		this.markbases(new MachineState(new BitSet(this.baseIds.length)));
+		this.clearactions();
 
-		BitSet activeStates = new BitSet(this.basePropositions.length);
-		for (int i = 0; i < this.basePropositions.length; i++) {
-			boolean val = this.basePropositions[i].crystalizedGetSingleInput().getValue();
-			activeStates.set(i, val);
+		if (this.initId != NO_COMPONENT) {
+			this.externalRepValues[this.initId] = true;
+			forwardprop(this.initId, true);
 		}
 
-		System.out.println("[PropNet] INITIAL STATE VALUES: " + activeStates);
+		TeapotPropnetState initial = this.readtransitions();
+
+		System.out.println("[PropNet] INITIAL STATE VALUES: " + initial);
 
-		if (initProp != null) {
-			this.propnet.getInitProposition().setValue(false);
-			forwardprop(this.propnet.getInitProposition());
+		if (this.initId != NO_COMPONENT) {
+			this.externalRepValues[this.initId] = false;
+			forwardprop(this.initId, false);
 			System.out.println("[PropNet] Turning off init prop...");
 		}
 
-		return new MachineState(activeStates);
+		return initial;
 	}
 
 	@Override
 	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
 		this.markbases(state);
-		for (Component c : this.basePropositions) forwardprop(c);
-		Proposition[] legalProps = this.legalPropositions.get(role);
+
+		int r = this.getRoleIndices().get(role);
+		int[] ids = this.legalIds[r];
 		ArrayList<Move> moves = new ArrayList<Move>();
-		for (Proposition p : legalProps) {
-			if (p.getValue()) moves.add(TeapotPropnetStateMachine.getMoveFromProposition(p));
+		for (int i = 0; i < ids.length; i++) {
+			if (this.externalRepValues[ids[i]]) moves.add(this.legalMoves[r][i]);
 		}
 		return moves;
 	}
 
+	@Override
+	public List<List<Move>> getAllLegalMoves(MachineState state) throws MoveDefinitionException {
+		this.markbases(state);
+
+		List<List<Move>> legals = new ArrayList<List<Move>>(this.legalIds.length);
+		for (int r = 0; r < this.legalIds.length; r++) {
+			int[] ids = this.legalIds[r];
+			ArrayList<Move> moves = new ArrayList<Move>();
+			for (int i = 0; i < ids.length; i++) {
+				if (this.externalRepValues[ids[i]]) moves.add(this.legalMoves[r][i]);
+			}
+			legals.add(moves);
+		}
+		return legals;
+	}
+
 	@Override
 	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+		this.markbases(state);
 		this.markactions(moves);
+		return this.readtransitions();
+	}
+
+	///////////////////////
+	// Indexed Moves API //
+	///////////////////////
+
+	@Override
+	public int getNumLegals(int role) {
+		return this.legalIds[role].length;
+	}
+
+	@Override
+	public Move[] getMoveTable(int role) {
+		return this.legalMoves[role];
+	}
+
+	@Override
+	public int getLegalMoveIndices(MachineState state, int role, int[] out) {
 		this.markbases(state);
-		for (Component c : this.basePropositions) forwardprop(c);
-		for (Component c : this.inputPropositions) forwardprop(c);
 
-		BitSet activeStates = new BitSet(this.basePropositions.length);
-		for (int i = 0; i < this.basePropositions.length; i++) {
-			boolean val = this.basePropositions[i].crystalizedGetSingleInput().getValue();
-			activeStates.set(i, val);
+		int[] ids = this.legalIds[role];
+		int n = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (this.externalRepValues[ids[i]]) out[n++] = i;
 		}
+		return n;
+	}
 
-		return new MachineState(activeStates);
+	@Override
+	public MachineState getNextState(MachineState state, int[] jointMove) {
+		this.markbases(state);
+		for (int r = 0; r < jointMove.length; r++) {
+			markinput(r, (jointMove[r] < 0) ? NO_COMPONENT : this.legalInputIds[r][jointMove[r]]);
+		}
+		return this.readtransitions();
 	}
 
-	/////////////////////
-	// PropNet Helpers //
-	/////////////////////
+	@Override
+	public MachineState createStateBuffer() {
+		return new TeapotPropnetState(new BitSet(this.baseIds.length), 0);
+	}
 
-	private void forwardprop(Component c) {
-		boolean c_val = c.getValue();
-		if (c_val == c.previousValue()) return;
-		c.setPreviousValue(c_val);
-		if ((c instanceof Transition)) return;
-		for (Component o : c.crystalizedGetOutputs()) {
-			if ((o instanceof Proposition)) {
-				o.setPreviousValue(o.getValue());
-				((Proposition) o).setValue(c_val);
-			}
-			else if ((o instanceof And)) ((And) o).counter += (c_val) ? 1 : -1;
-			else if ((o instanceof Or)) ((Or) o).counter += (c_val) ? 1 : -1;
-			else if ((o instanceof Transition)) {
-				o.setPreviousValue(o.getValue());
-				((Transition) o).setValue(c_val);
-			}
-			forwardprop(o);
-		}
+	@Override
+	public void copyState(MachineState state, MachineState buffer) {
+		BitSet bits = buffer.getPropContents();
+		bits.clear();
+		bits.or(state.getPropContents());
+		((TeapotPropnetState) buffer).hash = (state instanceof TeapotPropnetState)
+				? ((TeapotPropnetState) state).hash : this.topology.zobristHash(bits);
 	}
 
-	private void markbases(MachineState s) {
-		BitSet activeBits = s.getPropContents();
-		for (int i = 0; i < this.basePropositions.length; i++) {
-			this.basePropositions[i].setPreviousValue(this.basePropositions[i].getValue());
-			this.basePropositions[i].setValue(activeBits.get(i));
+	@Override
+	public void advanceInPlace(MachineState buffer, int[] jointMove) {
+		this.markbases(buffer);
+		for (int r = 0; r < jointMove.length; r++) {
+			markinput(r, (jointMove[r] < 0) ? NO_COMPONENT : this.legalInputIds[r][jointMove[r]]);
 		}
+		((TeapotPropnetState) buffer).hash = this.readtransitions(buffer.getPropContents());
 	}
 
-	private void markactions(List<Move> moves) {
-		for (Proposition p : this.inputPropositions) {
-			p.setPreviousValue(p.getValue());
-			p.setValue(false);
+	@Override
+	public int performFusedDepthCharge(MachineState state, int[] goals, long deadline) {
+		if (this.playoutState == null) {
+			int maxLegals = 0;
+			for (int[] ids : this.legalIds) maxLegals = Math.max(maxLegals, ids.length);
+			this.playoutState = (TeapotPropnetState) this.createStateBuffer();
+			this.playoutLegals = new int[maxLegals];
 		}
-		GdlSentence[] gdlMoves = toDoes(moves);
-		for (GdlSentence m : gdlMoves) {
-			this.propnet.getInputPropositions().get(m).setValue(true);
+
+		TeapotPropnetState current = this.playoutState;
+		this.copyState(state, current);
+
+		boolean[] values = this.externalRepValues;
+		int[] legals = this.playoutLegals;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int depth = 0;
+		while (true) {
+			this.markbases(current);
+			if (values[this.terminalId]) break;
+
+			// Legality only depends on the state, so each input can go in as it is picked
+			for (int r = 0; r < this.legalIds.length; r++) {
+				int[] ids = this.legalIds[r];
+				int n = 0;
+				for (int i = 0; i < ids.length; i++) {
+					if (values[ids[i]]) legals[n++] = i;
+				}
+				markinput(r, (n == 0) ? NO_COMPONENT : this.legalInputIds[r][legals[random.nextInt(n)]]);
+			}
+			current.hash = this.readtransitions(current.getPropContents());
+			depth++;
+			if (depth % DEADLINE_CHECK_PLIES == 0 && System.currentTimeMillis() > deadline) return -1;
 		}
-	}
 
-	private GdlSentence[] toDoes(List<Move> moves) {
-		GdlSentence[] doeses = new GdlSentence[moves.size()];
-		for (int i = 0; i < moves.size(); i++) {
-			doeses[i] = this.inputMap.get(i).get(moves.get(i).getContents());
+		for (int r = 0; r < goals.length; r++) {
+			goals[r] = 0;
+			int[] ids = this.goalIds[r];
+			for (int i = 0; i < ids.length; i++) {
+				if (values[ids[i]]) {
+					goals[r] = this.goalValues[r][i];
+					break;
+				}
+			}
 		}
-		return doeses;
+		return depth;
 	}
 
-	/////////////
-	// Returns //
-	/////////////
+	/**
+	 * Runs TeapotBitParallelPropnet.LANES random depth charges from state at
+	 * once and returns the goal value reached by each of them for role, or
+	 * null if deadline (in System.currentTimeMillis terms) cut them short.
+	 */
+	public int[] performBatchDepthCharge(MachineState state, Role role, long deadline) {
+		if (this.batchSimulator == null) {
+			this.batchSimulator = new TeapotBitParallelPropnet(this.topology);
+			this.batchGoals = new int[this.roles.size()][TeapotBitParallelPropnet.LANES];
+		}
 
-	public boolean isZeroSum() {
-		return this.zeroSum;
+		if (this.batchSimulator.simulate(state.getPropContents(), this.batchGoals, deadline) < 0) return null;
+		return this.batchGoals[this.getRoleIndices().get(role)].clone();
 	}
 
 	/////////////////////
-	// Generic Helpers //
+	// PropNet Helpers //
 	/////////////////////
 
 	/**
-	 * Determines whether or not the game is zero-sum
+	 * Points this instance at a topology and allocates its own values and
+	 * counters, brought to a consistent resting state (no bases, no inputs).
 	 */
-	private void determineZeroSum() {
-		for (Role r : this.propnet.getRoles()) {
-			for (Proposition p : this.propnet.getGoalPropositions().get(r)) {
-				if (this.getGoalValue(p) != 0 && this.getGoalValue(p) != 100 && this.getGoalValue(p) != 50) {
-					this.zeroSum = false;
-				}
+	private void attach(TeapotPropnetTopology topology) {
+		this.topology = topology;
+		this.propnet = topology.propnet;
+		this.description = topology.description;
+		this.roles = topology.roles;
+
+		this.externalRepMetadata = topology.externalRepMetadata;
+		this.externalRepOutputs = topology.externalRepOutputs;
+		this.baseIds = topology.baseIds;
+		this.zobristKeys = topology.zobristKeys;
+		this.transitionIds = topology.transitionIds;
+		this.legalIds = topology.legalIds;
+		this.legalInputIds = topology.legalInputIds;
+		this.goalIds = topology.goalIds;
+		this.goalValues = topology.goalValues;
+		this.terminalId = topology.terminalId;
+		this.initId = topology.initId;
+		this.legalMoves = topology.legalMoves;
+		this.inputMap = topology.inputMap;
+
+		this.markedInputs = new int[this.roles.size()];
+		for (int r = 0; r < this.markedInputs.length; r++) this.markedInputs[r] = NO_COMPONENT;
+
+		this.loadedBases = new BitSet(this.baseIds.length);
+		this.flippedBases = new BitSet(this.baseIds.length);
+
+		if (PROFILE) this.profiler = new TeapotPropnetProfiler(topology);
+
+		this.externalRepValues = new boolean[topology.numComponents];
+		this.externalRepCounters = new int[topology.numComponents];
+		for (int id = 0; id < topology.numComponents; id++) {
+			if (!topology.constantValues[id]) continue;
+			this.externalRepValues[id] = true;
+			forwardprop(id, true);
+		}
+		for (int id = 0; id < topology.numComponents; id++) {
+			if (topology.externallySet[id]) continue;
+			boolean val = computeValue(id);
+			if (val != this.externalRepValues[id]) {
+				this.externalRepValues[id] = val;
+				forwardprop(id, val);
 			}
-
-			if (!this.zeroSum) break;
 		}
+
+		// Only count what play does, not the resting state
+		if (PROFILE) this.profiler.reset();
 	}
 
 	/**
-	 * Helper method for parsing the value of a goal proposition
-	 * @param goalProposition
-	 * @return the integer value of the goal proposition
+	 * Pushes a change in the value of component id to all of its outputs.
+	 * Transitions are not propagated through; their value is only read off
+	 * when computing the next state.
 	 */
-	private int getGoalValue(Proposition goalProposition) {
-		GdlRelation relation = (GdlRelation) goalProposition.getName();
-		GdlConstant constant = (GdlConstant) relation.get(1);
-		return Integer.parseInt(constant.toString());
+	private void forwardprop(int id, boolean val) {
+		int meta = id * 4;
+		if (this.externalRepMetadata[meta] == TeapotPropnetTopology.TRANSITION_COMP) return;
+
+		int delta = (val) ? 1 : -1;
+		int start = this.externalRepMetadata[meta + 3];
+		int end = start + this.externalRepMetadata[meta + 2];
+		for (int i = start; i < end; i++) {
+			int o = this.externalRepOutputs[i];
+			this.externalRepCounters[o] += delta;
+			if (PROFILE) this.profiler.visits[o]++;
+			boolean o_val = computeValue(o);
+			if (o_val != this.externalRepValues[o]) {
+				if (PROFILE) this.profiler.flips[o]++;
+				this.externalRepValues[o] = o_val;
+				forwardprop(o, o_val);
+			}
+		}
 	}
 
 	/**
-	 * Remove unused view propositions
+	 * Computes the value of a (non-base, non-input) component from its counter.
 	 */
-	private void optimizeViewPropositions() {
-		// optimization
-		System.out.println("[PropNet] Begin Optimizing View Propositions");
-		int numberTrimmed = 0;
-		Set<Proposition> propsToRemove = new HashSet<>();
-		for (Proposition p : this.propnet.getPropositions()) {
-			if (p.isBase() || p.isInput() || p.isGoal() || p.isLegal()) continue;
-			else if (p.equals(this.propnet.getInitProposition())) continue;
-			else if (p.equals(this.propnet.getTerminalProposition())) continue;
-			else if (this.propnet.getLegalInputMap().get(p) != null) continue;
-			else {
-				if (p.getInputs().size() == 1 && p.getOutputs().size() == 1) {
-					Component inputComp = p.getSingleInput();
-					Component outputComp = p.getSingleOutput();
-					inputComp.removeOutput(p);
-					outputComp.removeInput(p);
-					inputComp.addOutput(outputComp);
-					outputComp.addInput(inputComp);
-					propsToRemove.add(p);
-					numberTrimmed++;
-				}
-			}
+	private boolean computeValue(int id) {
+		switch (this.externalRepMetadata[id * 4]) {
+		case TeapotPropnetTopology.AND_COMP:
+			return this.externalRepCounters[id] == this.externalRepMetadata[id * 4 + 1];
+		case TeapotPropnetTopology.NOT_COMP:
+			return this.externalRepCounters[id] == 0;
+		case TeapotPropnetTopology.CONSTANT_COMP:
+			return this.externalRepValues[id];
+		default: // OR, TRANSITION, PROPOSITION (views)
+			return this.externalRepCounters[id] > 0;
 		}
-		for (Proposition p : propsToRemove) this.propnet.removeComponent(p);
-		System.out.println("[PropNet] Trimmed " + numberTrimmed + " View Propositions");
 	}
 
 	/**
-	 * Takes in a Legal Proposition and returns the appropriate corresponding Move
-	 * @param p
-	 * @return a PropNetMove
+	 * Loads state s into the net, propagating only the bases that differ
+	 * from the loaded state. Marking the loaded state again costs a XOR.
 	 */
-	public static Move getMoveFromProposition(Proposition p) {
-		return new Move(p.getName().get(1));
+	private void markbases(MachineState s) {
+		BitSet flipped = this.flippedBases;
+		flipped.clear();
+		flipped.or(this.loadedBases);
+		flipped.xor(s.getPropContents());
+
+		for (int i = flipped.nextSetBit(0); i >= 0; i = flipped.nextSetBit(i + 1)) {
+			int id = this.baseIds[i];
+			boolean val = !this.externalRepValues[id];
+			if (PROFILE) this.profiler.flips[id]++;
+			this.externalRepValues[id] = val;
+			forwardprop(id, val);
+		}
+		this.loadedBases.xor(flipped);
 	}
 
-	private static void externalRepSetMetadata(int[] arr, int id, Component c, int offset) {
-		// Component Type
-		if (c instanceof And) {
-			arr[id * 4 + 0] = AND_COMP;
-		} else if (c instanceof Constant) {
-			arr[id * 4 + 0] = CONSTANT_COMP;
-		} else if (c instanceof Not) {
-			arr[id * 4 + 0] = NOT_COMP;
-		} else if (c instanceof Or) {
-			arr[id * 4 + 0] = OR_COMP;
-		} else if (c instanceof Proposition) {
-			arr[id * 4 + 0] = PROPOSITION_COMP;
-		} else if (c instanceof Transition) {
-			arr[id * 4 + 0] = TRANSITION_COMP;
+	private void markactions(List<Move> moves) {
+		for (int r = 0; r < moves.size(); r++) {
+			Integer id = this.inputMap.get(r).get(moves.get(r).getContents());
+			markinput(r, (id == null) ? NO_COMPONENT : id);
 		}
-
-		arr[id * 4 + 1] = c.numberOfInputs();
-		arr[id * 4 + 2] = c.numberOfOutputs();
-		arr[id * 4 + 3] = offset;
 	}
 
-	/////////////////////
-	// Sanitize Helper //
-	/////////////////////
+	private void clearactions() {
+		for (int r = 0; r < this.markedInputs.length; r++) markinput(r, NO_COMPONENT);
+	}
 
-	private void sanitizeDistinctHelper(Gdl gdl, List<Gdl> in, List<Gdl> out) {
-		if (!(gdl instanceof GdlRule)) {
-			out.add(gdl);
-			return;
+	private void markinput(int role, int id) {
+		int prev = this.markedInputs[role];
+		if (prev == id) return;
+		if (prev != NO_COMPONENT) {
+			if (PROFILE) this.profiler.flips[prev]++;
+			this.externalRepValues[prev] = false;
+			forwardprop(prev, false);
 		}
-		GdlRule rule = (GdlRule) gdl;
-		for (GdlLiteral lit : rule.getBody()) {
-			if (lit instanceof GdlDistinct) {
-				GdlDistinct d = (GdlDistinct) lit;
-				GdlTerm a = d.getArg1();
-				GdlTerm b = d.getArg2();
-				if (!(a instanceof GdlFunction) && !(b instanceof GdlFunction)) continue;
-				if (!(a instanceof GdlFunction && b instanceof GdlFunction)) return;
-				GdlSentence af = ((GdlFunction) a).toSentence();
-				GdlSentence bf = ((GdlFunction) b).toSentence();
-				if (!af.getName().equals(bf.getName())) return;
-				if (af.arity() != bf.arity()) return;
-				for (int i = 0; i < af.arity(); i++) {
-					List<GdlLiteral> ruleBody = new ArrayList<>();
-					for (GdlLiteral newLit : rule.getBody()) {
-						if (newLit != lit) ruleBody.add(newLit);
-						else ruleBody.add(GdlPool.getDistinct(af.get(i), bf.get(i)));
-					}
-					GdlRule newRule = GdlPool.getRule(rule.getHead(), ruleBody);
-					in.add(newRule);
-				}
-				return;
-			}
+		if (id != NO_COMPONENT) {
+			if (PROFILE) this.profiler.flips[id]++;
+			this.externalRepValues[id] = true;
+			forwardprop(id, true);
 		}
-		for (GdlLiteral lit : rule.getBody()) {
-			if (lit instanceof GdlDistinct) {
-				break;
+		this.markedInputs[role] = id;
+	}
+
+	private TeapotPropnetState readtransitions() {
+		BitSet activeStates = new BitSet(this.transitionIds.length);
+		return new TeapotPropnetState(activeStates, this.readtransitions(activeStates));
+	}
+
+	/**
+	 * Writes the next state into activeStates.
+	 *
+	 * @return its Zobrist hash
+	 */
+	private long readtransitions(BitSet activeStates) {
+		activeStates.clear();
+		long hash = 0;
+		for (int i = 0; i < this.transitionIds.length; i++) {
+			if (this.externalRepValues[this.transitionIds[i]]) {
+				activeStates.set(i);
+				hash ^= this.zobristKeys[i];
 			}
 		}
-		out.add(rule);
+		return hash;
 	}
 
-	private List<Gdl> sanitizeDistinct(List<Gdl> description) {
-		List<Gdl> out = new ArrayList<>();
-		for (int i = 0; i < description.size(); i++) {
-			sanitizeDistinctHelper(description.get(i), description, out);
-		}
-		return out;
+	/////////////
+	// Returns //
+	/////////////
+
+	@Override
+	public TeapotPropnetTopology getTopology() {
+		return this.topology;
+	}
+
+	/**
+	 * @return this instance's counters, or null unless run with -Dteapot.profile=true
+	 */
+	public TeapotPropnetProfiler getProfiler() {
+		return this.profiler;
+	}
+
+	public boolean isZeroSum() {
+		return this.topology.isZeroSum();
+	}
+
+	/////////////////////
+	// Generic Helpers //
+	/////////////////////
+
+	/**
+	 * Takes in a Legal Proposition and returns the appropriate corresponding Move
+	 * @param p
+	 * @return a PropNetMove
+	 */
+	public static Move getMoveFromProposition(Proposition p) {
+		return new Move(p.getName().get(1));
 	}
 }
@@ -0,0 +1,229 @@
+/**
+ * Bit-parallel simulation of a Propnet. Every component carries a long word
+ * with one bit per playout, so And/Or/Not/Transition evaluate 64 independent
+ * depth charges with a single bitwise operation.
+ *
+ * Unlike TeapotBetaPropnetStateMachine, this is not differential: every step
+ * evaluates the net in topological order. One instance per thread.
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+public final class TeapotBitParallelPropnet {
+
+	/** Number of playouts simulated at once (one per bit) **/
+	public static final int LANES = 64;
+
+	/** Safety net for games that never terminate **/
+	private static final int MAX_STEPS = 10000;
+
+	/** Steps between looks at the clock, as for fused depth charges **/
+	private static final int DEADLINE_CHECK_PLIES = TeapotIndexedStateMachine.DEADLINE_CHECK_PLIES;
+
+	/** Maximum sweeps over a cyclic net before giving up on a fixed point **/
+	static final int MAX_SWEEPS = 64;
+
+	private static final int NO_COMPONENT = TeapotPropnetTopology.NO_COMPONENT;
+
+	// MARK: - Variables
+
+	private final TeapotPropnetTopology topology;
+
+	/** Shared External Representation **/
+	private final int[] externalRepMetadata;
+	private final int[] externalRepInputs;
+	private final int[] externalRepInputOffsets;
+	private final int[] baseIds;
+	private final int[] transitionIds;
+	private final int[][] legalIds;
+	private final int[][] legalInputIds;
+	private final int[][] goalIds;
+	private final int[][] goalValues;
+	private final int terminalId;
+
+	/** One word per component, one bit per playout **/
+	private final long[] words;
+
+	/** Evaluation Order, shared with the topology **/
+	private final int[] stateOrder;
+	private final int[] inputOrder;
+	private final boolean cyclic;
+
+	/** Per-playout scratch for move selection **/
+	private final int[] legalCounts = new int[LANES];
+	private final int[] chosen = new int[LANES];
+
+	public TeapotBitParallelPropnet(TeapotPropnetTopology topology) {
+		this.topology = topology;
+		this.externalRepMetadata = topology.externalRepMetadata;
+		this.externalRepInputs = topology.externalRepInputs;
+		this.externalRepInputOffsets = topology.externalRepInputOffsets;
+		this.baseIds = topology.baseIds;
+		this.transitionIds = topology.transitionIds;
+		this.legalIds = topology.legalIds;
+		this.legalInputIds = topology.legalInputIds;
+		this.goalIds = topology.goalIds;
+		this.goalValues = topology.goalValues;
+		this.terminalId = topology.terminalId;
+
+		this.stateOrder = topology.stateOrder;
+		this.inputOrder = topology.inputOrder;
+		this.cyclic = topology.cyclic;
+
+		this.words = new long[topology.numComponents];
+		for (int id = 0; id < topology.numComponents; id++) {
+			if (topology.constantValues[id]) this.words[id] = -1L;
+		}
+	}
+
+	/**
+	 * Runs LANES random playouts from the given state at once. Gives up once
+	 * deadline (in System.currentTimeMillis terms) has passed, which is
+	 * checked every DEADLINE_CHECK_PLIES steps.
+	 *
+	 * @param goals goals[role][lane] is filled in with each playout's final goal values
+	 * @return the summed depth of all the playouts, or -1 if the deadline cut
+	 * them short (goals are then undefined)
+	 */
+	public long simulate(BitSet state, int[][] goals, long deadline) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		for (int[] g : goals) Arrays.fill(g, 0);
+		for (int i = 0; i < this.baseIds.length; i++) this.words[this.baseIds[i]] = state.get(i) ? -1L : 0L;
+		clearInputs();
+
+		long active = -1L;
+		long depth = 0;
+		for (int step = 0; active != 0; step++) {
+			evaluate(this.stateOrder);
+
+			long done = this.words[this.terminalId] & active;
+			if (step >= MAX_STEPS) done = active;
+			if (done != 0) {
+				recordGoals(done, goals);
+				active &= ~done;
+				if (active == 0) break;
+			}
+
+			clearInputs();
+			for (int r = 0; r < this.legalIds.length; r++) chooseMoves(r, active, random);
+			evaluate(this.inputOrder);
+
+			for (int i = 0; i < this.baseIds.length; i++) this.words[this.baseIds[i]] = this.words[this.transitionIds[i]];
+			depth += Long.bitCount(active);
+			if ((step + 1) % DEADLINE_CHECK_PLIES == 0 && System.currentTimeMillis() > deadline) return -1;
+		}
+
+		return depth;
+	}
+
+	public TeapotPropnetTopology getTopology() {
+		return this.topology;
+	}
+
+	/////////////////////
+	// PropNet Helpers //
+	/////////////////////
+
+	private void evaluate(int[] order) {
+		if (!this.cyclic) {
+			for (int k = 0; k < order.length; k++) this.words[order[k]] = computeWord(order[k]);
+			return;
+		}
+
+		// On a cyclic net, sweep from all-false until it settles. The state
+		// half never reads the input half, so each can be settled on its own.
+		for (int k = 0; k < order.length; k++) this.words[order[k]] = 0;
+		boolean changed = true;
+		for (int sweep = 0; changed && sweep < MAX_SWEEPS; sweep++) changed = sweep(order);
+	}
+
+	private boolean sweep(int[] order) {
+		boolean changed = false;
+		for (int k = 0; k < order.length; k++) {
+			long w = computeWord(order[k]);
+			if (w != this.words[order[k]]) {
+				this.words[order[k]] = w;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private long computeWord(int id) {
+		int start = this.externalRepInputOffsets[id];
+		int end = this.externalRepInputOffsets[id + 1];
+		long w;
+		switch (this.externalRepMetadata[id * 4]) {
+		case TeapotPropnetTopology.AND_COMP:
+			w = -1L;
+			for (int i = start; i < end; i++) w &= this.words[this.externalRepInputs[i]];
+			return w;
+		case TeapotPropnetTopology.NOT_COMP:
+			return ~this.words[this.externalRepInputs[start]];
+		default: // OR, TRANSITION, PROPOSITION (views)
+			w = 0;
+			for (int i = start; i < end; i++) w |= this.words[this.externalRepInputs[i]];
+			return w;
+		}
+	}
+
+	/**
+	 * Picks a uniformly random legal move for role r in every active lane and
+	 * sets the matching input bit.
+	 */
+	private void chooseMoves(int r, long active, ThreadLocalRandom random) {
+		int[] ids = this.legalIds[r];
+		int[] inputs = this.legalInputIds[r];
+
+		Arrays.fill(this.legalCounts, 0);
+		for (int i = 0; i < ids.length; i++) {
+			long w = this.words[ids[i]] & active;
+			while (w != 0) {
+				this.legalCounts[Long.numberOfTrailingZeros(w)]++;
+				w &= w - 1;
+			}
+		}
+
+		long pending = 0;
+		for (long w = active; w != 0; w &= w - 1) {
+			int lane = Long.numberOfTrailingZeros(w);
+			if (this.legalCounts[lane] == 0) continue;
+			this.chosen[lane] = random.nextInt(this.legalCounts[lane]);
+			pending |= 1L << lane;
+		}
+
+		for (int i = 0; i < ids.length && pending != 0; i++) {
+			long w = this.words[ids[i]] & pending;
+			while (w != 0) {
+				int lane = Long.numberOfTrailingZeros(w);
+				if (this.chosen[lane]-- == 0) {
+					if (inputs[i] != NO_COMPONENT) this.words[inputs[i]] |= 1L << lane;
+					pending &= ~(1L << lane);
+				}
+				w &= w - 1;
+			}
+		}
+	}
+
+	private void clearInputs() {
+		for (int[] inputs : this.legalInputIds) {
+			for (int id : inputs) if (id != NO_COMPONENT) this.words[id] = 0;
+		}
+	}
+
+	private void recordGoals(long lanes, int[][] goals) {
+		for (int r = 0; r < this.goalIds.length; r++) {
+			for (int g = 0; g < this.goalIds[r].length; g++) {
+				long w = this.words[this.goalIds[r][g]] & lanes;
+				while (w != 0) {
+					goals[r][Long.numberOfTrailingZeros(w)] = this.goalValues[r][g];
+					w &= w - 1;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Base class for the Propnets generated by TeapotPropnetCompiler. A subclass
+ * hard-codes the gate network of one game as straight-line code, so there is
+ * no metadata to interpret and the JIT can inline the whole net.
+ *
+ * Instances are not thread safe; use copy() to get one per thread.
+ */
+
+import java.util.BitSet;
+
+public abstract class TeapotCompiledPropnet {
+
+	/** Component values, indexed by componentId **/
+	protected final boolean[] v;
+
+	/** Legal index played by each role, or -1 for none **/
+	protected final int[] moves;
+
+	protected TeapotCompiledPropnet(int numComponents, int numRoles) {
+		this.v = new boolean[numComponents];
+		this.moves = new int[numRoles];
+		for (int r = 0; r < numRoles; r++) this.moves[r] = -1;
+	}
+
+	/**
+	 * Sets the base propositions from the state and computes everything that
+	 * only depends on the state (legals, goals, terminal).
+	 */
+	public abstract void loadState(BitSet state);
+
+	/**
+	 * Computes the next state for the loaded state and the moves set with
+	 * setMove. Clears next before writing to it.
+	 */
+	public abstract void computeNext(BitSet next);
+
+	/**
+	 * Writes the indices of the legal moves of role into out and returns how
+	 * many there are.
+	 */
+	public abstract int computeLegal(int role, int[] out);
+
+	/**
+	 * @return the goal value of role in the loaded state, or 0 if none holds
+	 */
+	public abstract int computeGoal(int role);
+
+	public abstract boolean isTerminal();
+
+	/**
+	 * Sets the init proposition. Takes effect on the next loadState.
+	 */
+	public abstract void setInit(boolean val);
+
+	public void setMove(int role, int legalIndex) {
+		this.moves[role] = legalIndex;
+	}
+
+	/**
+	 * @return a fresh instance of the same generated class
+	 */
+	public TeapotCompiledPropnet copy() {
+		try {
+			return this.getClass().getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("[Compiler] Could not copy " + this.getClass().getName(), e);
+		}
+	}
+}
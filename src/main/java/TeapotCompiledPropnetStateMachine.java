@@ -0,0 +1,292 @@
+/**
+ * A StateMachine running on a Propnet compiled to bytecode by
+ * TeapotPropnetCompiler. A drop-in alternative to
+ * TeapotBetaPropnetStateMachine that trades a short compile during
+ * initialization for no interpretive overhead afterwards.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+public class TeapotCompiledPropnetStateMachine extends StateMachine implements TeapotIndexedStateMachine {
+
+	// MARK: - Variables
+
+	/** The Shared Topology **/
+	private TeapotPropnetTopology topology;
+
+	/** The Generated Propnet (per instance) **/
+	private TeapotCompiledPropnet net;
+
+	/** Roles **/
+	private List<Role> roles;
+
+	/** Interned Moves and Move -> Legal Index, indexed by role **/
+	private Move[][] legalMoves;
+	private List<Map<GdlTerm, Integer>> legalIndices;
+
+	/** The state currently loaded into the net, if any **/
+	private MachineState loadedState = null;
+
+	/** Scratch for computeLegal **/
+	private int[] legalBuffer;
+
+	/** Scratch state for fused depth charges, created on first use **/
+	private BitSet playoutBits;
+
+	/**
+	 * Creates an empty machine; the net is built and compiled in initialize.
+	 */
+	public TeapotCompiledPropnetStateMachine() {
+	}
+
+	/**
+	 * Compiles a machine over an already built topology. The machine is
+	 * ready to use and does not need to be initialized.
+	 */
+	public TeapotCompiledPropnetStateMachine(TeapotPropnetTopology topology) {
+		this(topology, TeapotPropnetCompiler.compile(topology));
+	}
+
+	private TeapotCompiledPropnetStateMachine(TeapotPropnetTopology topology, TeapotCompiledPropnet net) {
+		this.attach(topology, net);
+	}
+
+	@Override
+	public void initialize(List<Gdl> description) {
+		TeapotPropnetTopology topology = TeapotPropnetTopology.create(description);
+		this.attach(topology, TeapotPropnetCompiler.compile(topology));
+		System.out.println("[PropNet] Finished Initializing Compiled StateMachine");
+	}
+
+	/**
+	 * Creates another machine over the same compiled class, for use on another thread.
+	 */
+	public TeapotCompiledPropnetStateMachine createInstance() {
+		return new TeapotCompiledPropnetStateMachine(this.topology, this.net.copy());
+	}
+
+	@Override
+	public List<Move> findActions(Role role) throws MoveDefinitionException {
+		return Arrays.asList(this.legalMoves[this.getRoleIndices().get(role)]);
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+		this.load(state);
+		return this.net.computeGoal(this.getRoleIndices().get(role));
+	}
+
+	@Override
+	public int[] getGoalValues(MachineState state) throws GoalDefinitionException {
+		this.load(state);
+
+		int[] goals = new int[this.roles.size()];
+		for (int r = 0; r < goals.length; r++) goals[r] = this.net.computeGoal(r);
+		return goals;
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state) {
+		this.load(state);
+		return this.net.isTerminal();
+	}
+
+	@Override
+	public List<Role> getRoles() {
+		return this.roles;
+	}
+
+	@Override
+	public MachineState getInitialState() {
+		for (int r = 0; r < this.roles.size(); r++) this.net.setMove(r, -1);
+
+		this.net.setInit(true);
+		this.net.loadState(new BitSet(this.topology.baseIds.length));
+		BitSet activeStates = new BitSet(this.topology.transitionIds.length);
+		this.net.computeNext(activeStates);
+		this.net.setInit(false);
+		this.loadedState = null;
+
+		System.out.println("[PropNet] INITIAL STATE VALUES: " + activeStates);
+
+		return new TeapotPropnetState(activeStates, this.topology.zobristHash(activeStates));
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+		this.load(state);
+
+		int r = this.getRoleIndices().get(role);
+		int n = this.net.computeLegal(r, this.legalBuffer);
+		List<Move> moves = new ArrayList<Move>(n);
+		for (int i = 0; i < n; i++) moves.add(this.legalMoves[r][this.legalBuffer[i]]);
+		return moves;
+	}
+
+	@Override
+	public List<List<Move>> getAllLegalMoves(MachineState state) throws MoveDefinitionException {
+		this.load(state);
+
+		List<List<Move>> legals = new ArrayList<List<Move>>(this.roles.size());
+		for (int r = 0; r < this.roles.size(); r++) {
+			int n = this.net.computeLegal(r, this.legalBuffer);
+			List<Move> moves = new ArrayList<Move>(n);
+			for (int i = 0; i < n; i++) moves.add(this.legalMoves[r][this.legalBuffer[i]]);
+			legals.add(moves);
+		}
+		return legals;
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+		this.load(state);
+
+		for (int r = 0; r < moves.size(); r++) {
+			Integer index = this.legalIndices.get(r).get(moves.get(r).getContents());
+			this.net.setMove(r, (index == null) ? -1 : index);
+		}
+
+		BitSet activeStates = new BitSet(this.topology.transitionIds.length);
+		this.net.computeNext(activeStates);
+		return new TeapotPropnetState(activeStates, this.topology.zobristHash(activeStates));
+	}
+
+	///////////////////////
+	// Indexed Moves API //
+	///////////////////////
+
+	@Override
+	public int getNumLegals(int role) {
+		return this.legalMoves[role].length;
+	}
+
+	@Override
+	public Move[] getMoveTable(int role) {
+		return this.legalMoves[role];
+	}
+
+	@Override
+	public int getLegalMoveIndices(MachineState state, int role, int[] out) {
+		this.load(state);
+		return this.net.computeLegal(role, out);
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, int[] jointMove) {
+		this.load(state);
+		for (int r = 0; r < jointMove.length; r++) this.net.setMove(r, jointMove[r]);
+
+		BitSet activeStates = new BitSet(this.topology.transitionIds.length);
+		this.net.computeNext(activeStates);
+		return new TeapotPropnetState(activeStates, this.topology.zobristHash(activeStates));
+	}
+
+	@Override
+	public MachineState createStateBuffer() {
+		return new TeapotPropnetState(new BitSet(this.topology.baseIds.length), 0);
+	}
+
+	@Override
+	public void copyState(MachineState state, MachineState buffer) {
+		BitSet bits = buffer.getPropContents();
+		bits.clear();
+		bits.or(state.getPropContents());
+		((TeapotPropnetState) buffer).hash = (state instanceof TeapotPropnetState)
+				? ((TeapotPropnetState) state).hash : this.topology.zobristHash(bits);
+		if (buffer == this.loadedState) this.loadedState = null;
+	}
+
+	@Override
+	public void advanceInPlace(MachineState buffer, int[] jointMove) {
+		this.load(buffer);
+		for (int r = 0; r < jointMove.length; r++) this.net.setMove(r, jointMove[r]);
+
+		// The net still holds the old contents of buffer
+		this.net.computeNext(buffer.getPropContents());
+		((TeapotPropnetState) buffer).hash = this.topology.zobristHash(buffer.getPropContents());
+		this.loadedState = null;
+	}
+
+	@Override
+	public int performFusedDepthCharge(MachineState state, int[] goals, long deadline) {
+		if (this.playoutBits == null) this.playoutBits = new BitSet(this.topology.transitionIds.length);
+
+		BitSet bits = this.playoutBits;
+		bits.clear();
+		bits.or(state.getPropContents());
+		this.loadedState = null;
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int depth = 0;
+		while (true) {
+			this.net.loadState(bits);
+			if (this.net.isTerminal()) break;
+
+			for (int r = 0; r < goals.length; r++) {
+				int n = this.net.computeLegal(r, this.legalBuffer);
+				this.net.setMove(r, (n == 0) ? -1 : this.legalBuffer[random.nextInt(n)]);
+			}
+			this.net.computeNext(bits);
+			depth++;
+			if (depth % DEADLINE_CHECK_PLIES == 0 && System.currentTimeMillis() > deadline) return -1;
+		}
+
+		for (int r = 0; r < goals.length; r++) goals[r] = this.net.computeGoal(r);
+		return depth;
+	}
+
+	/////////////////////
+	// PropNet Helpers //
+	/////////////////////
+
+	private void attach(TeapotPropnetTopology topology, TeapotCompiledPropnet net) {
+		this.topology = topology;
+		this.net = net;
+		this.roles = topology.roles;
+		this.legalMoves = topology.legalMoves;
+		this.legalIndices = topology.legalIndices;
+
+		int maxLegals = 0;
+		for (int[] ids : topology.legalIds) maxLegals = Math.max(maxLegals, ids.length);
+		this.legalBuffer = new int[maxLegals];
+	}
+
+	/**
+	 * Loads state into the net, unless it is already there. computeNext
+	 * leaves the state half of the net alone, so the same state can be
+	 * queried and expanded without being reloaded.
+	 */
+	private void load(MachineState state) {
+		if (state == this.loadedState) return;
+		this.net.loadState(state.getPropContents());
+		this.loadedState = state;
+	}
+
+	/////////////
+	// Returns //
+	/////////////
+
+	@Override
+	public TeapotPropnetTopology getTopology() {
+		return this.topology;
+	}
+
+	public boolean isZeroSum() {
+		return this.topology.isZeroSum();
+	}
+}
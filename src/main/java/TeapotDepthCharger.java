@@ -1,3 +1,5 @@
+import java.util.concurrent.ThreadLocalRandom;
+
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
@@ -5,33 +7,85 @@ import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
-class DepthCharger implements Runnable {
+class DepthCharger {
 	private volatile int utility = 0;
 
 	private StateMachine machine = null;
 	private MachineState state = null;
 	private Role role = null;
 
+	/** No charge runs past this (System.currentTimeMillis) **/
+	private long deadline = Long.MAX_VALUE;
+
+	/** Goal of every role after a fused depth charge, when machine is a TeapotIndexedStateMachine **/
+	private int[] goals = null;
+
 	DepthCharger(StateMachine machine, MachineState state, Role role) {
 		this.machine = machine; this.state = state; this.role = role;
+		if (machine instanceof TeapotIndexedStateMachine) this.goals = new int[machine.getRoles().size()];
+	}
+
+	/**
+	 * @return a legal move buffer per role sized for machine, or null if
+	 * machine has no indexed move API
+	 */
+	static int[][] createLegalBuffers(StateMachine machine) {
+		if (!(machine instanceof TeapotIndexedStateMachine)) return null;
+		TeapotIndexedStateMachine indexed = (TeapotIndexedStateMachine) machine;
+		int[][] buffers = new int[machine.getRoles().size()][];
+		for (int r = 0; r < buffers.length; r++) buffers[r] = new int[indexed.getNumLegals(r)];
+		return buffers;
+	}
+
+	/**
+	 * Fills jointMove with a uniformly random legal move index per role, or -1
+	 * for a role without legal moves.
+	 */
+	static void randomJointMove(TeapotIndexedStateMachine indexed, MachineState state, int[][] legalBuffers, int[] jointMove) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int r = 0; r < jointMove.length; r++) {
+			int n = indexed.getLegalMoveIndices(state, r, legalBuffers[r]);
+			jointMove[r] = (n == 0) ? -1 : legalBuffers[r][random.nextInt(n)];
+		}
 	}
 
 	public void setState(MachineState state) { this.state = state; this.utility = 0; }
 
 	public void setRole(Role role) { this.role = role; }
 
-	@Override
-	public void run() {
+	public void setDeadline(long deadline) { this.deadline = deadline; }
+
+	/**
+	 * Plays one depth charge from the state set last (see getUtility).
+	 *
+	 * @return false if it failed or ran into the deadline
+	 */
+	public boolean charge() {
 		try {
-			utility = depthCharge();
+			int result = depthCharge();
+			if (result < 0) return false;
+			utility = result;
+			return true;
 		} catch (Exception e) {
 			System.out.println("[Depth Charger] Error With Depth Charge");
 			e.printStackTrace();
+			return false;
 		}
 	}
 
+	/**
+	 * @return our goal at the end of the charge, or -1 if it hit the deadline
+	 */
 	private int depthCharge() throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		while (!machine.isTerminal(state)) state = machine.getNextState(state, machine.getRandomJointMove(state));
+		if (goals != null) {
+			// The machine plays on its own copy, so state can belong to the tree
+			if (((TeapotIndexedStateMachine) machine).performFusedDepthCharge(state, goals, deadline) < 0) return -1;
+			return goals[machine.getRoleIndices().get(role)];
+		}
+		while (!machine.isTerminal(state)) {
+			if (System.currentTimeMillis() > deadline) return -1;
+			state = machine.getNextState(state, machine.getRandomJointMove(state));
+		}
 		return machine.getGoal(state, role);
 	}
 
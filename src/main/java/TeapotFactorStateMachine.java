@@ -0,0 +1,132 @@
+/**
+ * A view of a game restricted to one TeapotPropnetFactor. States are still
+ * full states of the game, but every role may only play the moves of this
+ * factor (plus the shared moves that belong to no factor), so a search over
+ * it only explores the subgame while the other factors stay put.
+ *
+ * When a role has no legal move left in the factor, all of its legal moves
+ * are allowed, so that play can always continue.
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+public class TeapotFactorStateMachine extends StateMachine {
+
+	// MARK: - Variables
+
+	/** The machine for the whole game **/
+	private final StateMachine machine;
+
+	private final TeapotPropnetFactor factor;
+
+	/** Moves of this factor, indexed by role **/
+	private final List<Set<Move>> factorMoves = new ArrayList<>();
+
+	/** Moves of no factor at all, indexed by role **/
+	private final List<Set<Move>> sharedMoves = new ArrayList<>();
+
+	public TeapotFactorStateMachine(StateMachine machine, TeapotPropnetTopology topology, TeapotPropnetFactor factor, List<TeapotPropnetFactor> allFactors) {
+		this.machine = machine;
+		this.factor = factor;
+
+		for (int r = 0; r < topology.legalMoves.length; r++) {
+			Set<Move> own = new HashSet<>();
+			Set<Move> shared = new HashSet<>();
+			for (int i = 0; i < topology.legalMoves[r].length; i++) {
+				if (factor.hasLegal(r, i)) {
+					own.add(topology.legalMoves[r][i]);
+					continue;
+				}
+
+				boolean inAnyFactor = false;
+				for (TeapotPropnetFactor f : allFactors) inAnyFactor |= f.hasLegal(r, i);
+				if (!inAnyFactor) shared.add(topology.legalMoves[r][i]);
+			}
+			this.factorMoves.add(own);
+			this.sharedMoves.add(shared);
+		}
+	}
+
+	@Override
+	public void initialize(List<Gdl> description) {
+		// The underlying machine is already initialized
+	}
+
+	@Override
+	public List<Move> findActions(Role role) throws MoveDefinitionException {
+		List<Move> actions = new ArrayList<>();
+		int r = this.getRoleIndices().get(role);
+		for (Move m : this.machine.findActions(role)) {
+			if (this.factorMoves.get(r).contains(m) || this.sharedMoves.get(r).contains(m)) actions.add(m);
+		}
+		return actions;
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+		return this.machine.getGoal(state, role);
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state) {
+		return this.machine.isTerminal(state);
+	}
+
+	@Override
+	public List<Role> getRoles() {
+		return this.machine.getRoles();
+	}
+
+	@Override
+	public MachineState getInitialState() {
+		return this.machine.getInitialState();
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+		List<Move> all = this.machine.getLegalMoves(state, role);
+
+		int r = this.getRoleIndices().get(role);
+		List<Move> moves = new ArrayList<>();
+		for (Move m : all) {
+			if (this.factorMoves.get(r).contains(m) || this.sharedMoves.get(r).contains(m)) moves.add(m);
+		}
+		return (moves.isEmpty()) ? all : moves;
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+		return this.machine.getNextState(state, moves);
+	}
+
+	/////////////
+	// Returns //
+	/////////////
+
+	/**
+	 * @return true if role has a legal move in this factor in state
+	 */
+	public boolean isPlayable(MachineState state, Role role) throws MoveDefinitionException {
+		Set<Move> own = this.factorMoves.get(this.getRoleIndices().get(role));
+		for (Move m : this.machine.getLegalMoves(state, role)) {
+			if (own.contains(m)) return true;
+		}
+		return false;
+	}
+
+	public TeapotPropnetFactor getFactor() {
+		return this.factor;
+	}
+}
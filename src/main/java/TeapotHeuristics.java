@@ -33,8 +33,25 @@ public class TeapotHeuristics {
 
 	private double[] heuristics = {};
 
+	/** Move and state buffers when machine is a TeapotIndexedStateMachine, else null **/
+	private TeapotIndexedStateMachine indexed = null;
+	private int roleIndex = 0;
+	private int[][] legalBuffers = null;
+	private int[] jointMove = null;
+	private MachineState stateBuffer = null;
+
 	public void setData(StateMachine machine, Role role) {
 		this.machine = machine; this.role = role;
+
+		this.legalBuffers = DepthCharger.createLegalBuffers(machine);
+		if (this.legalBuffers != null) {
+			this.indexed = (TeapotIndexedStateMachine) machine;
+			this.roleIndex = machine.getRoleIndices().get(role);
+			this.jointMove = new int[this.legalBuffers.length];
+			this.stateBuffer = this.indexed.createStateBuffer();
+		} else {
+			this.indexed = null;
+		}
 	}
 
 	public void calculate(long timeout, boolean isZeroSum) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
@@ -47,6 +64,11 @@ public class TeapotHeuristics {
 		int numSimulations = 0;
 		while (System.currentTimeMillis() < timeout) {
 			MachineState current = initial;
+			if (this.indexed != null) {
+				// Simulations advance a single buffer in place
+				current = this.stateBuffer;
+				this.indexed.copyState(initial, current);
+			}
 
 			double goal = goalHeuristic(current);
 			double focus = focusHeuristic(current);
@@ -56,7 +78,12 @@ public class TeapotHeuristics {
 
 			// computeHeuristics(current);
 			while (!this.machine.isTerminal(current)) {
-				current = this.machine.getRandomNextState(current);
+				if (this.indexed != null) {
+					DepthCharger.randomJointMove(this.indexed, current, this.legalBuffers, this.jointMove);
+					this.indexed.advanceInPlace(current, this.jointMove);
+				} else {
+					current = this.machine.getRandomNextState(current);
+				}
 				// computeHeuristics(current);
 
 				goal += goalHeuristic(current);
@@ -130,6 +157,19 @@ public class TeapotHeuristics {
 		if (!this.hasHeuristics) System.out.println("[TeapotHeuristics] No Heuristics Enabled");
 	}
 
+	/**
+	 * @return the calculated heuristics, evaluated on machine instead (one
+	 * copy per search thread, as compute uses the machine and its buffers)
+	 */
+	public TeapotHeuristics copyFor(StateMachine machine) {
+		TeapotHeuristics copy = new TeapotHeuristics();
+		copy.setData(machine, this.role);
+		copy.feasible = this.feasible;
+		copy.heuristics = this.heuristics;
+		copy.hasHeuristics = this.hasHeuristics;
+		return copy;
+	}
+
 	public double compute(MachineState state) throws GoalDefinitionException, MoveDefinitionException {
 		if (!this.hasHeuristics) return 0.0;
 
@@ -153,7 +193,7 @@ public class TeapotHeuristics {
 	private double focusHeuristic(MachineState state) throws MoveDefinitionException {
 		try {
 			//System.out.println(100.0 - (this.machine.getLegalMoves(state, this.role).size() / feasible) * 100);
-			return 100.0 - (this.machine.getLegalMoves(state, this.role).size() / feasible) * 100;
+			return 100.0 - (numLegalMoves(state) / feasible) * 100;
 		} catch (Exception e) {
 			return 0;
 		}
@@ -162,12 +202,17 @@ public class TeapotHeuristics {
 	private double mobilityHeuristic(MachineState state) throws MoveDefinitionException {
 		try {
 			//System.out.println(this.machine.getLegalMoves(state, this.role).size() );
-			return (this.machine.getLegalMoves(state, this.role).size() / feasible) * 100;
+			return (numLegalMoves(state) / feasible) * 100;
 		} catch (Exception e) {
 			return 0;
 		}
 	}
 
+	private int numLegalMoves(MachineState state) throws MoveDefinitionException {
+		if (this.indexed != null) return this.indexed.getLegalMoveIndices(state, this.roleIndex, this.legalBuffers[this.roleIndex]);
+		return this.machine.getLegalMoves(state, this.role).size();
+	}
+
 	private double validate(double g) {
 		if (Double.isNaN(g) || g == Double.NEGATIVE_INFINITY || g == Double.POSITIVE_INFINITY) return 0;
 		else if (g < 0.30) return 0.0;
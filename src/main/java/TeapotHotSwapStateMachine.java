@@ -0,0 +1,260 @@
+/**
+ * Plays on the prover from the first move while a propnet machine is built
+ * on a background thread, then swaps to the propnet once it has been built
+ * and cross-checked against the prover on a few random playouts. A propnet
+ * that is slow to build, fails to build or disagrees with the prover never
+ * costs the match; we just stay on the prover.
+ *
+ * The swap is a single volatile write and can happen between any two calls,
+ * in the middle of a match. States handed out before it are prover states,
+ * and are translated to propnet states whenever they come back.
+ *
+ * A match that ends before the swap must cancel the build, or the builder
+ * thread goes on working into the next match.
+ */
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+public class TeapotHotSwapStateMachine extends StateMachine {
+
+	// MARK: - Constants
+
+	/** Random playouts compared against the prover before swapping **/
+	private static final int CHECK_PLAYOUTS = 5;
+
+	/** Guard against games that never end under random play **/
+	private static final int MAX_CHECK_DEPTH = 500;
+
+	// MARK: - Variables
+
+	/** Answers everything until the swap **/
+	private final StateMachine prover = new CachedStateMachine(new ProverStateMachine());
+
+	/** Built in the background, only published once checked **/
+	private final StateMachine candidate;
+
+	/** The checked propnet machine, or null while we are on the prover **/
+	private volatile StateMachine propnet = null;
+
+	/** Maps the (true ...) sentences of prover states to base indices **/
+	private Map<GdlSentence, Integer> baseIndex = null;
+
+	private TeapotPropnetTopology topology = null;
+
+	private Thread builder = null;
+
+	/** Set by cancel; the builder checks it between its phases **/
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param candidate an uninitialized propnet machine implementing
+	 * TeapotIndexedStateMachine
+	 */
+	public TeapotHotSwapStateMachine(StateMachine candidate) {
+		this.candidate = candidate;
+	}
+
+	@Override
+	public void initialize(final List<Gdl> description) {
+		this.prover.initialize(description);
+
+		this.builder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				build(description);
+			}
+		}, "PropNet Builder");
+		this.builder.setDaemon(true);
+		this.builder.start();
+	}
+
+	/**
+	 * Stops the background build (if still running) and never swaps.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+		if (this.builder != null) this.builder.interrupt();
+	}
+
+	/**
+	 * @return the propnet machine once swapped in, or null while on the prover
+	 */
+	public StateMachine getPropnet() {
+		return this.propnet;
+	}
+
+	// MARK: - StateMachine
+
+	@Override
+	public List<Move> findActions(Role role) throws MoveDefinitionException {
+		StateMachine m = this.propnet;
+		if (m != null) return m.findActions(role);
+
+		try {
+			return this.prover.findActions(role);
+		} catch (MoveDefinitionException e) {
+			// The prover needs (input ...) rules; older games only have legals
+			return this.prover.getLegalMoves(this.prover.getInitialState(), role);
+		}
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+		StateMachine m = this.propnet;
+		if (m != null) return m.getGoal(toPropnetState(state), role);
+
+		try {
+			return this.prover.getGoal(state, role);
+		} catch (GoalDefinitionException e) {
+			// As on the propnet: 0 when no goal holds (heuristics ask mid-game)
+			return 0;
+		}
+	}
+
+	@Override
+	public int[] getGoalValues(MachineState state) throws GoalDefinitionException {
+		StateMachine m = this.propnet;
+		return (m != null) ? m.getGoalValues(toPropnetState(state)) : super.getGoalValues(state);
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state) {
+		StateMachine m = this.propnet;
+		return (m != null) ? m.isTerminal(toPropnetState(state)) : this.prover.isTerminal(state);
+	}
+
+	@Override
+	public List<Role> getRoles() {
+		return this.prover.getRoles();
+	}
+
+	@Override
+	public MachineState getInitialState() {
+		StateMachine m = this.propnet;
+		return (m != null) ? m.getInitialState() : this.prover.getInitialState();
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+		StateMachine m = this.propnet;
+		return (m != null) ? m.getLegalMoves(toPropnetState(state), role) : this.prover.getLegalMoves(state, role);
+	}
+
+	@Override
+	public List<List<Move>> getAllLegalMoves(MachineState state) throws MoveDefinitionException {
+		StateMachine m = this.propnet;
+		return (m != null) ? m.getAllLegalMoves(toPropnetState(state)) : super.getAllLegalMoves(state);
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+		StateMachine m = this.propnet;
+		return (m != null) ? m.getNextState(toPropnetState(state), moves) : this.prover.getNextState(state, moves);
+	}
+
+	/////////////////////
+	// Generic Helpers //
+	/////////////////////
+
+	/**
+	 * Runs on the builder thread: builds the candidate, checks it against a
+	 * prover of our own (the shared one is not thread-safe) and swaps.
+	 */
+	private void build(List<Gdl> description) {
+		long start = System.currentTimeMillis();
+		try {
+			this.candidate.initialize(description);
+			if (this.cancelled) return;
+			this.topology = ((TeapotIndexedStateMachine) this.candidate).getTopology();
+
+			Map<GdlSentence, Integer> index = new HashMap<>();
+			for (int i = 0; i < this.topology.basePropositions.length; i++) index.put(this.topology.basePropositions[i].getName(), i);
+			this.baseIndex = index;
+
+			StateMachine checker = new ProverStateMachine();
+			checker.initialize(description);
+			String mismatch = crossCheck(checker);
+			if (this.cancelled) return;
+			if (mismatch != null) {
+				System.out.println("[HotSwap] PropNet disagrees with the prover (" + mismatch + "), staying on the prover");
+				return;
+			}
+
+			this.propnet = this.candidate;
+			System.out.println("[HotSwap] Swapped to the PropNet after " + (System.currentTimeMillis() - start) + "ms");
+		} catch (Throwable e) {
+			if (this.cancelled) return;
+			System.out.println("[HotSwap] PropNet build failed, staying on the prover: " + e);
+		}
+	}
+
+	/**
+	 * Plays random playouts on checker and replays them on the candidate,
+	 * comparing legal moves, terminality and goals. The states themselves are
+	 * not compared: the propnet's initial state may hold extra bits derived
+	 * from the init rules that nothing can observe.
+	 *
+	 * @return a description of the first difference, or null if none
+	 */
+	private String crossCheck(StateMachine checker) throws Exception {
+		List<Role> roles = checker.getRoles();
+
+		for (int p = 0; p < CHECK_PLAYOUTS && !this.cancelled; p++) {
+			MachineState state = checker.getInitialState();
+			MachineState netState = this.candidate.getInitialState();
+
+			for (int depth = 0; depth < MAX_CHECK_DEPTH; depth++) {
+				boolean terminal = checker.isTerminal(state);
+				if (terminal != this.candidate.isTerminal(netState)) return "terminal at depth " + depth;
+
+				if (terminal) {
+					for (Role r : roles) {
+						if (checker.getGoal(state, r) != this.candidate.getGoal(netState, r)) return "goal of " + r + " at depth " + depth;
+					}
+					break;
+				}
+
+				for (Role r : roles) {
+					Set<Move> expected = new HashSet<>(checker.getLegalMoves(state, r));
+					if (!expected.equals(new HashSet<>(this.candidate.getLegalMoves(netState, r)))) return "legal moves of " + r + " at depth " + depth;
+				}
+
+				List<Move> moves = checker.getRandomJointMove(state);
+				state = checker.getNextState(state, moves);
+				netState = this.candidate.getNextState(netState, moves);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Translates a prover state; propnet states are returned as they are.
+	 */
+	private MachineState toPropnetState(MachineState state) {
+		if (state.getPropContents() != null) return state;
+
+		BitSet bits = new BitSet(this.topology.basePropositions.length);
+		for (GdlSentence s : state.getContents()) {
+			Integer i = this.baseIndex.get(s);
+			if (i != null) bits.set(i);
+		}
+		return new TeapotPropnetState(bits, this.topology.zobristHash(bits));
+	}
+}
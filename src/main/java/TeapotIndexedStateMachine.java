@@ -0,0 +1,74 @@
+/**
+ * Index-based access to the moves of a propnet state machine, so that
+ * playouts can run without building Lists or Moves. The legal moves of role
+ * r are numbered 0 .. getNumLegals(r) - 1, and getMoveTable(r) maps those
+ * numbers back to interned Moves.
+ */
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+public interface TeapotIndexedStateMachine {
+
+	/** Joint moves a fused depth charge plays between looks at the clock **/
+	int DEADLINE_CHECK_PLIES = 64;
+
+	/**
+	 * @return the shared topology the move and base indices refer to
+	 */
+	TeapotPropnetTopology getTopology();
+
+	/**
+	 * @return the number of moves role could ever have, enough to size a buffer
+	 */
+	int getNumLegals(int role);
+
+	/**
+	 * @return the interned Moves of role, indexed by move index (do not modify)
+	 */
+	Move[] getMoveTable(int role);
+
+	/**
+	 * Writes the indices of role's legal moves in state into out.
+	 *
+	 * @return the number of legal moves written
+	 */
+	int getLegalMoveIndices(MachineState state, int role, int[] out);
+
+	/**
+	 * @param jointMove a move index per role, or -1 for no move
+	 */
+	MachineState getNextState(MachineState state, int[] jointMove) throws TransitionDefinitionException;
+
+	/**
+	 * @return an empty, caller-owned state to advance in place
+	 */
+	MachineState createStateBuffer();
+
+	/**
+	 * Overwrites buffer with the contents of state. Buffers must only be
+	 * written through copyState and advanceInPlace, so the machine can tell
+	 * when their contents change.
+	 */
+	void copyState(MachineState state, MachineState buffer);
+
+	/**
+	 * Replaces the contents of buffer by its successor under jointMove,
+	 * without allocating. Take a snapshot (MachineState.clone) of anything
+	 * that has to outlive the next call.
+	 */
+	void advanceInPlace(MachineState buffer, int[] jointMove) throws TransitionDefinitionException;
+
+	/**
+	 * Plays uniformly random joint moves from state to the end of the game
+	 * entirely inside the machine, on its own in-place buffer, and writes the
+	 * goal of every role in the final state into goals. Gives up once
+	 * deadline (in System.currentTimeMillis terms) has passed, which is
+	 * checked every DEADLINE_CHECK_PLIES joint moves.
+	 *
+	 * @return the number of joint moves played, or -1 if the deadline cut the
+	 * charge short (goals are then undefined)
+	 */
+	int performFusedDepthCharge(MachineState state, int[] goals, long deadline) throws TransitionDefinitionException;
+}
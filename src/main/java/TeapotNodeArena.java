@@ -0,0 +1,390 @@
+/**
+ * The MCTS graph as a struct of arrays: a node is an int index into
+ * preallocated arrays of its fields, and its children are a run of ints in
+ * the edge array. The whole search allocates no objects for its nodes, so
+ * the collector has nothing to trace in them, and select reads the
+ * statistics of a node's children from a few dense arrays.
+ *
+ * Nodes are handed out by bumping a counter, and never freed one by one:
+ * reset() drops every tree at once, in constant time, and compact() frees
+ * whatever the live roots no longer reach (pruning the least visited
+ * subtrees if that is not enough) by sliding the survivors down over the
+ * gaps. The arrays are sized once, from the heap, and kept for the life of
+ * the player, so their capacity is the search's node budget.
+ *
+ * Several threads may allocate at once. A node's children are built by one
+ * thread, under the node's lock, and published with numChildren (a volatile
+ * write), so a reader that sees them also sees their fields.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+
+final class TeapotNodeArena {
+
+	// MARK: - Constants
+
+	/** The index of no node **/
+	static final int NONE = -1;
+
+	/** Share of the heap the arena takes, and what it costs per node (with two edges and compaction's scratch) **/
+	private static final int HEAP_FRACTION = 8;
+	private static final int BYTES_PER_NODE = 96;
+	private static final int MAX_NODES = 1 << 24;
+
+	/** Edges per node: every node but a root has one, and transpositions add more **/
+	private static final int EDGES_PER_NODE = 2;
+
+	/** Room kept for the roots of a move; less than this left and the arena counts as full **/
+	private static final int RESERVE = 1 << 12;
+
+	/** Locks guarding node updates, shared between nodes by index **/
+	private static final int LOCK_STRIPES = 1 << 12;
+
+	/** compact() prunes until at most 1/PRUNE_TARGET of the arena is left in use **/
+	private static final int PRUNE_TARGET = 2;
+
+	// MARK: - Nodes
+
+	final int capacity;
+
+	/** The node's state, or null for a move node **/
+	final MachineState[] state;
+
+	/** The move that led here (ours for a move node, the last of ours for a state node) **/
+	final Move[] action;
+
+	// true if maxnode, false if min-node
+	final boolean[] maxnode;
+
+	// All subnodes have been solved
+	final boolean[] finishedComputing;
+
+	// Terminal Node
+	final boolean[] isTerminal;
+
+	final int[] visits;
+
+	// Playouts in flight below this node (tree-parallel search only)
+	final AtomicIntegerArray virtualLoss;
+
+	final double[] utility;			// Average Utility
+	final double[] total_utility;	// Sum of all utilities
+
+	// HEURISTICS
+	final double[] heuristic;
+
+	// The children are edges[firstEdge .. firstEdge + numChildren), published once complete
+	final int[] firstEdge;
+	final AtomicIntegerArray numChildren;
+
+	// SOLVER: the children solved so far, each counted once (see finishedEdges)
+	final int[] finishedChildren;
+
+	// debug data
+	final int[] level;
+
+	// MARK: - Edges
+
+	final int edgeCapacity;
+
+	/** The child each edge leads to **/
+	final int[] edges;
+
+	/** The child has been counted in its parent's finishedChildren through this edge **/
+	final boolean[] finishedEdges;
+
+	// MARK: - Variables
+
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicInteger edgeSize = new AtomicInteger();
+
+	/** An allocation has failed since the last reset **/
+	private volatile boolean full = false;
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	/** Scratch for compact: each node's new index, and the owner of each run of edges (first the mark stack) **/
+	private final int[] forward;
+	private final int[] runOwner;
+
+	TeapotNodeArena(int capacity) {
+		this.capacity = capacity;
+		this.state = new MachineState[capacity];
+		this.action = new Move[capacity];
+		this.maxnode = new boolean[capacity];
+		this.finishedComputing = new boolean[capacity];
+		this.isTerminal = new boolean[capacity];
+		this.visits = new int[capacity];
+		this.virtualLoss = new AtomicIntegerArray(capacity);
+		this.utility = new double[capacity];
+		this.total_utility = new double[capacity];
+		this.heuristic = new double[capacity];
+		this.firstEdge = new int[capacity];
+		this.numChildren = new AtomicIntegerArray(capacity);
+		this.finishedChildren = new int[capacity];
+		this.level = new int[capacity];
+
+		this.edgeCapacity = capacity * EDGES_PER_NODE;
+		this.edges = new int[this.edgeCapacity];
+		this.finishedEdges = new boolean[this.edgeCapacity];
+
+		this.forward = new int[capacity];
+		this.runOwner = new int[this.edgeCapacity];
+
+		for (int i = 0; i < LOCK_STRIPES; i++) this.locks[i] = new Object();
+	}
+
+	/**
+	 * @return as many nodes as a 1/HEAP_FRACTION share of the maximum heap holds
+	 */
+	static int defaultCapacity() {
+		long nodes = Runtime.getRuntime().maxMemory() / HEAP_FRACTION / BYTES_PER_NODE;
+		return (int) Math.max(RESERVE * 2, Math.min(MAX_NODES, nodes));
+	}
+
+	/**
+	 * Drops every node. The states of the old nodes stay referenced until
+	 * their slots are handed out again.
+	 */
+	void reset() {
+		this.size.set(0);
+		this.edgeSize.set(0);
+		this.full = false;
+	}
+
+	/**
+	 * @return count fresh nodes, at consecutive indices from the one
+	 * returned, or NONE if the arena is out of nodes
+	 */
+	int allocate(int count) {
+		int first = reserve(this.size, count, this.capacity);
+		if (first == NONE) return NONE;
+
+		for (int n = first; n < first + count; n++) {
+			this.state[n] = null;
+			this.action[n] = null;
+			this.maxnode[n] = false;
+			this.finishedComputing[n] = false;
+			this.isTerminal[n] = false;
+			this.visits[n] = 0;
+			this.virtualLoss.set(n, 0);
+			this.utility[n] = 0;
+			this.total_utility[n] = 0;
+			this.heuristic[n] = 0;
+			this.firstEdge[n] = 0;
+			this.numChildren.set(n, 0);
+			this.finishedChildren[n] = 0;
+			this.level[n] = 0;
+		}
+		return first;
+	}
+
+	/**
+	 * @return the first of count fresh edges, or NONE if the arena is out of edges
+	 */
+	int allocateEdges(int count) {
+		int first = reserve(this.edgeSize, count, this.edgeCapacity);
+		if (first == NONE) return NONE;
+
+		for (int e = first; e < first + count; e++) this.finishedEdges[e] = false;
+		return first;
+	}
+
+	/**
+	 * Frees every node the roots no longer reach, and slides the others down
+	 * over the gaps, rewriting roots (and every edge) with their new indices.
+	 * If more than 1/PRUNE_TARGET of the arena would still be in use, the
+	 * state nodes visited least lose their children too, and become leaves
+	 * again. No other thread may use the arena meanwhile.
+	 *
+	 * @param roots the root of every live tree, or NONE
+	 */
+	void compact(int[] roots) {
+		int before = this.size.get();
+
+		// What keeping the children of the state nodes of each visit count
+		// (bucketed by their highest bit) would cost
+		long[] costs = new long[32];
+		mark(roots, 0, costs);
+
+		// The least visits a state node needs to keep its children
+		int threshold = 0;
+		long total = 0;
+		for (int b = costs.length - 1; b >= 0; b--) {
+			total += costs[b];
+			if (total > this.capacity / PRUNE_TARGET) {
+				threshold = (b == 31) ? Integer.MAX_VALUE : 1 << b;
+				break;
+			}
+		}
+		if (threshold > 0) mark(roots, threshold, null);
+
+		slide(before);
+		for (int i = 0; i < roots.length; i++) {
+			if (roots[i] != NONE) roots[i] = this.forward[roots[i]];
+		}
+		this.full = false;
+
+		System.out.println("[Node Arena] Compacted " + before + " to " + this.size.get() + " Nodes" + ((threshold > 0) ? " (Pruned below " + threshold + " Visits)" : ""));
+	}
+
+	/**
+	 * @return whether less than the reserve for new roots is left
+	 */
+	boolean isFull() {
+		return this.full || this.size.get() > this.capacity - RESERVE || this.edgeSize.get() > this.edgeCapacity - RESERVE;
+	}
+
+	int size() {
+		return this.size.get();
+	}
+
+	/**
+	 * @return the i-th child of n
+	 */
+	int child(int n, int i) {
+		return this.edges[this.firstEdge[n] + i];
+	}
+
+	/**
+	 * @return the lock guarding n's statistics and children
+	 */
+	Object lock(int n) {
+		return this.locks[n & (LOCK_STRIPES - 1)];
+	}
+
+	/////////////////////
+	// Generic Helpers //
+	/////////////////////
+
+	/**
+	 * Marks (in forward) every node reachable from roots, through the
+	 * children of move nodes, roots, and state nodes of at least threshold
+	 * visits. The children of any other state node are dropped. Without a
+	 * threshold nothing is dropped, and costs gets, by the bucket of each
+	 * state node's visits, the nodes and edges below it that it keeps.
+	 */
+	private void mark(int[] roots, int threshold, long[] costs) {
+		int size = this.size.get();
+		for (int n = 0; n < size; n++) this.forward[n] = NONE;
+
+		// Every node is pushed once, and there are more edges than nodes
+		int[] stack = this.runOwner;
+		int top = 0;
+		for (int r : roots) {
+			if (r == NONE || this.forward[r] != NONE) continue;
+			this.forward[r] = 0;
+			stack[top++] = r;
+		}
+
+		while (top > 0) {
+			int n = stack[--top];
+			int numChildren = this.numChildren.get(n);
+			if (numChildren == 0) continue;
+
+			if (this.state[n] != null && this.visits[n] < threshold && !isRoot(roots, n)) {
+				this.numChildren.set(n, 0);
+				this.finishedChildren[n] = 0;
+				continue;
+			}
+
+			long cost = 0;
+			for (int i = 0; i < numChildren; i++) {
+				int c = child(n, i);
+				cost += 1 + this.numChildren.get(c);
+				if (this.forward[c] != NONE) continue;
+				this.forward[c] = 0;
+				stack[top++] = c;
+			}
+			if (costs != null && this.state[n] != null) costs[32 - Integer.numberOfLeadingZeros(this.visits[n])] += cost;
+		}
+	}
+
+	/**
+	 * Gives the marked nodes consecutive indices, in their old order, and
+	 * moves them and their runs of edges there. Both only ever move down, so
+	 * nothing is overwritten before it has been moved.
+	 */
+	private void slide(int size) {
+		int next = 0;
+		for (int n = 0; n < size; n++) {
+			if (this.forward[n] != NONE) this.forward[n] = next++;
+		}
+
+		int edgeSize = this.edgeSize.get();
+		for (int e = 0; e < edgeSize; e++) this.runOwner[e] = NONE;
+		for (int n = 0; n < size; n++) {
+			if (this.forward[n] != NONE && this.numChildren.get(n) > 0) this.runOwner[this.firstEdge[n]] = n;
+		}
+
+		int nextEdge = 0;
+		for (int e = 0; e < edgeSize;) {
+			int owner = this.runOwner[e];
+			if (owner == NONE) {
+				e++;
+				continue;
+			}
+
+			int length = this.numChildren.get(owner);
+			for (int i = 0; i < length; i++) {
+				this.edges[nextEdge + i] = this.forward[this.edges[e + i]];
+				this.finishedEdges[nextEdge + i] = this.finishedEdges[e + i];
+			}
+			this.firstEdge[owner] = nextEdge;
+			nextEdge += length;
+			e += length;
+		}
+
+		for (int n = 0; n < size; n++) {
+			int to = this.forward[n];
+			if (to == NONE || to == n) continue;
+
+			this.state[to] = this.state[n];
+			this.action[to] = this.action[n];
+			this.maxnode[to] = this.maxnode[n];
+			this.finishedComputing[to] = this.finishedComputing[n];
+			this.isTerminal[to] = this.isTerminal[n];
+			this.visits[to] = this.visits[n];
+			this.virtualLoss.set(to, this.virtualLoss.get(n));
+			this.utility[to] = this.utility[n];
+			this.total_utility[to] = this.total_utility[n];
+			this.heuristic[to] = this.heuristic[n];
+			this.firstEdge[to] = this.firstEdge[n];
+			this.numChildren.set(to, this.numChildren.get(n));
+			this.finishedChildren[to] = this.finishedChildren[n];
+			this.level[to] = this.level[n];
+		}
+
+		// Let the states of the freed nodes be collected
+		for (int n = next; n < size; n++) {
+			this.state[n] = null;
+			this.action[n] = null;
+		}
+
+		this.size.set(next);
+		this.edgeSize.set(nextEdge);
+	}
+
+	private static boolean isRoot(int[] roots, int n) {
+		for (int r : roots) {
+			if (r == n) return true;
+		}
+		return false;
+	}
+
+	private int reserve(AtomicInteger counter, int count, int limit) {
+		while (true) {
+			int first = counter.get();
+			if (first > limit - count) {
+				if (!this.full) System.out.println("[Node Arena] Full at " + this.size.get() + " Nodes");
+				this.full = true;
+				return NONE;
+			}
+			if (counter.compareAndSet(first, first + count)) return first;
+		}
+	}
+}
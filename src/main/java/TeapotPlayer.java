@@ -1,6 +1,12 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ggp.base.apps.player.Player;
 import org.ggp.base.player.gamer.exception.GamePreviewException;
@@ -28,12 +34,24 @@ public class TeapotPlayer extends StateMachineGamer {
 	public final static int TIMEOUT_BUFFER = 2500;
 
 	private final static int CHARGES_PER_NODE = 1;
-	private final static int NUM_THREADS = 4;
-	private final static boolean MULTITHREADING_ENABLED = false;
+	private final static int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** How the MCTS loop is run (see search) **/
+	private final static int SEQUENTIAL_SEARCH = 0;
+	private final static int TREE_PARALLEL_SEARCH = 1;
+	private final static int ROOT_PARALLEL_SEARCH = 2;
+	private final static int LEAF_PARALLEL_SEARCH = 3;
+	private final static int SEARCH_STRATEGY = TREE_PARALLEL_SEARCH;
 
 	private final static double BRIAN_C_FACTOR = 12.5;
 
 	private final static boolean USE_PROPNET = true;
+	private final static boolean USE_COMPILED_PROPNET = false;
+	private final static boolean USE_BACKGROUND_PROPNET = true;
+	private final static boolean USE_BATCH_DEPTH_CHARGES = false;
+	private final static boolean USE_FACTORING = true;
+	private final static boolean USE_LATCHES = true;
+	private final static int PROFILE_TOP_N = 25;
 
 	private static final boolean USE_ASP_SOLVER = false;
 	private static final boolean SEED_HEURISTIC = false;
@@ -42,16 +60,49 @@ public class TeapotPlayer extends StateMachineGamer {
 
 	private static final double EPSILON = 4.9E-324;
 
+	private static final int NONE = TeapotNodeArena.NONE;
+
+	/** A depth charge the timeout cut short, which must not be backed up **/
+	private static final int NOT_PLAYED = -1;
+
 	////////////////////
 	//  Gamer System  //
 	////////////////////
 
 	private StateMachine stateMachine = null;
+	private TeapotHotSwapStateMachine hotSwap = null;
+	private boolean propnetAttached = false;
 	private StateMachine[] multiStateMachine = null;
-	private DepthCharger[] chargers = null;
-	private Thread[] threads = null;
 
-	private Node rootNode = null;
+	/** Every node of every tree below, kept from match to match **/
+	private TeapotNodeArena arena = null;
+
+	private int rootNode = NONE;
+
+	private List<TeapotFactorStateMachine> factorMachines = null;
+	private int[] factorRoots = null;
+
+	/** Each factor is searched on its own machine, with the full game's heuristics **/
+	private Searcher[] factorSearchers = null;
+
+	/** Factor i is searched on thread i % factorThreads, with that thread's machine (see factorMachine) **/
+	private int factorThreads = 1;
+
+	private TeapotPropnetLatches latches = null;
+	private int roleIndex = 0;
+
+	/** Searches on this thread, with this.stateMachine **/
+	private Searcher searcher = null;
+
+	/** Search on threads of their own (tree- or root-parallel search), or null **/
+	private Searcher[] workers = null;
+
+	/** The private tree of each worker (root-parallel search), or null **/
+	private int[] workerRoots = null;
+
+	/** Plays every leaf's depth charges on all threads at once (leaf-parallel search), or null **/
+	private TeapotPlayoutPool playoutPool = null;
+	private TeapotPlayoutPool.Charge ownCharge = null;
 
 	private long timeout;
 
@@ -67,31 +118,29 @@ public class TeapotPlayer extends StateMachineGamer {
 
 	@Override
 	public StateMachine getInitialStateMachine() {
-		if (USE_PROPNET) {
-			this.stateMachine = new TeapotPropnetStateMachine();
-			this.solverStateMachine = new TeapotPropnetStateMachine();
+		this.multiStateMachine = new StateMachine[NUM_THREADS];
 
-			this.chargers = new DepthCharger[NUM_THREADS];
-			this.multiStateMachine = new StateMachine[NUM_THREADS];
-			for (int i = 0; i < NUM_THREADS; i++) this.multiStateMachine[i] = new TeapotPropnetStateMachine();
+		this.hotSwap = null;
+		if (USE_PROPNET) {
+			// The solver and depth charge machines share this machine's topology,
+			// so they are created once it has been initialized (see attachPropnet)
+			this.stateMachine = (USE_COMPILED_PROPNET) ? new TeapotCompiledPropnetStateMachine() : new TeapotBetaPropnetStateMachine();
+
+			if (USE_BACKGROUND_PROPNET) {
+				// Play on the prover until the propnet is built and checked
+				this.hotSwap = new TeapotHotSwapStateMachine(this.stateMachine);
+				this.stateMachine = this.hotSwap;
+			}
 
-			System.out.println("[Teapot] Using PropNet");
+			System.out.println("[Teapot] Using PropNet" + ((USE_BACKGROUND_PROPNET) ? " (built in the background)" : ""));
 		} else {
 			this.stateMachine = new CachedStateMachine(new ProverStateMachine());
 
-			this.chargers = new DepthCharger[NUM_THREADS];
-			this.multiStateMachine = new StateMachine[NUM_THREADS];
 			for (int i = 0; i < NUM_THREADS; i++) this.multiStateMachine[i] = new CachedStateMachine(new ProverStateMachine());
 
 			System.out.println("[Teapot] Using Prover");
 		}
 
-		this.threads = new Thread[NUM_THREADS];
-		for (int i = 0; i < NUM_THREADS; i++) {
-			this.chargers[i] = new DepthCharger(this.multiStateMachine[i], null, null);
-			threads[i] = new Thread(chargers[i]);
-		}
-
 		return this.stateMachine;
 	}
 
@@ -104,21 +153,28 @@ public class TeapotPlayer extends StateMachineGamer {
 
 		this.lastResort = false;
 		this.solverMoves = null;
-
-		if (USE_PROPNET && USE_ASP_SOLVER) {
-			TeapotPropnetStateMachine solverSM = (TeapotPropnetStateMachine)this.solverStateMachine;
-
-			solverSM.initialize(getMatch().getGame().getRules());
-			this.teapotASP.setData(solverSM, solverSM.propnet, solverSM.description, getRole());
+		this.factorMachines = null;
+		this.factorRoots = null;
+		this.factorSearchers = null;
+		this.latches = null;
+		this.workers = null;
+		this.workerRoots = null;
+		this.propnetAttached = false;
+		this.roleIndex = this.stateMachine.getRoleIndices().get(getRole());
+		if (this.arena == null) this.arena = new TeapotNodeArena(TeapotNodeArena.defaultCapacity());
+		clearTrees();
+		attachPropnet();
+
+		if (this.propnetAttached && USE_ASP_SOLVER) {
+			TeapotPropnetTopology topology = getPropnetTopology();
+
+			this.teapotASP.setData(this.solverStateMachine, topology.getPropNet(), topology.getDescription(), getRole());
 			this.solverMoves = this.teapotASP.solve(timeout);
 		}
 
-		if (MULTITHREADING_ENABLED) {
-			for (int i = 0; i < NUM_THREADS; i++) {
-				this.multiStateMachine[i].initialize(getMatch().getGame().getRules());
-				this.chargers[i].setRole(getRole());
-				System.out.println("[Teapot] Initialized Multithreaded Gamer #" + i);
-			}
+		// Until the hot-swap the search stays on this thread (see createSearchers)
+		if (SEARCH_STRATEGY != SEQUENTIAL_SEARCH && !this.propnetAttached && this.hotSwap == null) {
+			for (int i = 0; i < NUM_THREADS; i++) this.multiStateMachine[i].initialize(getMatch().getGame().getRules());
 		}
 
 		// Timeout
@@ -126,26 +182,23 @@ public class TeapotPlayer extends StateMachineGamer {
 
 		// Heuristics
 		if (USE_HEURISTICS) {
-			boolean isZeroSum = (this.stateMachine instanceof TeapotPropnetStateMachine) ? ((TeapotPropnetStateMachine)this.stateMachine).isZeroSum() : false;
+			boolean isZeroSum = (this.propnetAttached) ? getPropnetTopology().isZeroSum() : false;
 
 			this.teapotHeuristics.setData(this.stateMachine, getRole());
 			this.teapotHeuristics.calculate(this.timeout - (this.timeout - System.currentTimeMillis()) / 2, isZeroSum);
 		}
 
+		// The background build may have finished during the heuristics
+		attachPropnet();
+		createSearchers();
+
 		// Create the new node!
-		this.rootNode = makeNode(null, getCurrentState(), true, null);
-		this.rootNode.level = 0;
+		this.rootNode = makeRoot(this.searcher, getCurrentState());
+		recoverWorkerRoots();
 
 		// Begin Building MCTS Tree
-		int mctsCycles = 0;
-		while (!reachingTimeout()) {
-			mctsCycles++;
-			if (this.rootNode.finishedComputing && this.rootNode.utility == 100) {
-				System.out.println("[Metagame] Game Solved! Cycles: " + mctsCycles);
-				break;
-			}
-			runMCTS(this.rootNode);
-		}
+		int mctsCycles = search(true);
+		if (this.arena.finishedComputing[this.rootNode] && this.arena.utility[this.rootNode] == 100) System.out.println("[Metagame] Game Solved!");
 		System.out.println("[Metagame] MCTS Cycles: " + mctsCycles);
 
 		System.out.println("[Teapot] Metagame End");
@@ -158,6 +211,12 @@ public class TeapotPlayer extends StateMachineGamer {
 		this.timeout = timeout - TIMEOUT_BUFFER;
 		this.totalDepthCharges = 0;
 
+		if (attachPropnet()) {
+			// The old tree holds prover states; regrow it on the propnet
+			createSearchers();
+			clearTrees();
+		}
+
 		if (this.solverMoves != null && this.solverMoves.size() > 0) {
 			Move s = this.solverMoves.get(0);
 			this.solverMoves.remove(0);
@@ -167,60 +226,352 @@ public class TeapotPlayer extends StateMachineGamer {
 			return s;
 		}
 
-		// Recreate the Root Node
-		Node newRoot = null;
+		if (this.factorMachines != null) {
+			Move factored = selectFactoredMove();
+			if (factored != null) return factored;
+		}
+
+		MachineState state = getCurrentState();
+		this.rootNode = (this.rootNode == NONE) ? makeRoot(this.searcher, state) : recoverRoot(this.searcher, this.rootNode, state);
+		recoverWorkerRoots();
+		reclaimNodes();
 
-		if (this.rootNode.state.equals(getCurrentState())) {
-			newRoot = this.rootNode;
-		} else {
-			if (this.rootNode.children != null) {
-				for (Node n : this.rootNode.children) {
-					if (n.children == null) continue;
-					for (Node nn : n.children) {
-						if (nn.state.equals(getCurrentState())) {
-							newRoot = nn;
-						}
-						if (newRoot != null) break;
+		int mctsCycles = search(false);
+		System.out.println("[Teapot] MCTS Cycles: " + mctsCycles);
+		System.out.println("[Teapot] Depth Charges: " + this.totalDepthCharges);
+
+		int selectedNode = selectBestChild((this.workerRoots != null) ? mergeWorkerRoots() : this.rootNode);
+
+		if (selectedNode != NONE) {
+			System.out.println("[Select Move] Move: " + this.arena.action[selectedNode] + " Utility: " + this.arena.utility[selectedNode]);
+			return this.arena.action[selectedNode];
+		}
+
+		return this.stateMachine.getLegalMoves(getCurrentState(), getRole()).get(0);
+	}
+
+	/**
+	 * Searches every factor we can move in with its own tree, the factors
+	 * spread over the threads (see searchFactors), and plays the best move
+	 * found in any of them.
+	 *
+	 * @return null if we cannot move in any factor
+	 */
+	private Move selectFactoredMove() throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		MachineState state = getCurrentState();
+
+		List<Integer> playable = new ArrayList<>();
+		for (int i = 0; i < this.factorMachines.size(); i++) {
+			if (!this.factorMachines.get(i).isPlayable(state, getRole())) continue;
+			playable.add(i);
+		}
+		if (playable.isEmpty()) return null;
+
+		for (int i : playable) {
+			Searcher s = this.factorSearchers[i];
+			this.factorRoots[i] = (this.factorRoots[i] == NONE) ? makeRoot(s, state) : recoverRoot(s, this.factorRoots[i], state);
+		}
+		reclaimNodes();
+
+		int mctsCycles = 0;
+		boolean growing = true;
+		while (true) {
+			mctsCycles += searchFactors(playable, growing);
+			if (!growing || !this.arena.isFull() || reachingTimeout()) break;
+
+			compactTrees();
+			growing = !this.arena.isFull();
+		}
+		for (int i : playable) {
+			this.totalDepthCharges += this.factorSearchers[i].depthCharges;
+			this.factorSearchers[i].depthCharges = 0;
+		}
+		System.out.println("[Teapot] Factored MCTS Cycles: " + mctsCycles);
+		System.out.println("[Teapot] Depth Charges: " + this.totalDepthCharges);
+
+		// Combine: the best move of the best factor
+		TeapotNodeArena a = this.arena;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		int selectedNode = NONE;
+		for (int i : playable) {
+			System.out.println("[Select Move] Factor #" + i + " (" + this.factorMachines.get(i).getFactor().getNumBases() + " bases)");
+			int n = selectBestChild(this.factorRoots[i]);
+			if (n == NONE) continue;
+
+			double score = (a.finishedComputing[n] && a.utility[n] == 100) ? Double.POSITIVE_INFINITY : a.utility[n];
+			if (this.lastResort) score = (a.visits[n] > 0) ? a.total_utility[n] / a.visits[n] : 0;
+			if (score >= bestScore) {
+				bestScore = score;
+				selectedNode = n;
+			}
+		}
+
+		if (selectedNode == NONE) return null;
+
+		System.out.println("[Select Move] Move: " + a.action[selectedNode] + " Utility: " + a.utility[selectedNode]);
+		return a.action[selectedNode];
+	}
+
+	/**
+	 * Searches the playable factors until they are all done, each on the
+	 * thread whose machine its searcher uses: factor i on thread
+	 * i % factorThreads, where thread 0 is this one.
+	 */
+	private int searchFactors(List<Integer> playable, final boolean growing) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		final List<List<Integer>> assigned = new ArrayList<>();
+		for (int t = 0; t < this.factorThreads; t++) assigned.add(new ArrayList<Integer>());
+		for (int i : playable) assigned.get(i % this.factorThreads).add(i);
+
+		final int[] cycles = new int[this.factorThreads];
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 1; t < this.factorThreads; t++) {
+			if (assigned.get(t).isEmpty()) continue;
+			final int w = t;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						cycles[w] = factorLoop(assigned.get(w), growing);
+					} catch (Exception e) {
+						System.out.println("[Teapot] (Parallel) Factor Worker #" + w + " Error");
+						e.printStackTrace();
 					}
-					if (newRoot != null) break;
 				}
-			} else {
-				System.out.println("[Select Move] Root Node has no children");
-			}
+			}, "MCTS Factor Worker #" + t);
+			thread.start();
+			threads.add(thread);
 		}
 
-		if (newRoot == null) {
-			System.out.println("[Select Move] Lost root node, regenerating...");
-			this.rootNode = makeNode(null, getCurrentState(), true, null);
-		} else {
-			System.out.println("[Select Move] Recovered Root Node from Sub-Tree.");
-			newRoot.parent = null;
-			this.rootNode = newRoot;
+		int mctsCycles = factorLoop(assigned.get(0), growing);
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				System.out.println("[Teapot] (Parallel) Interrupted");
+			}
 		}
+		for (int c : cycles) mctsCycles += c;
+		return mctsCycles;
+	}
 
+	/**
+	 * Searches factors round-robin, as searchLoop does a single tree.
+	 */
+	private int factorLoop(List<Integer> factors, boolean growing) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
 		int mctsCycles = 0;
+		if (factors.isEmpty()) return mctsCycles;
 		while (!reachingTimeout()) {
-			if (this.rootNode.finishedComputing && (this.rootNode.utility != 0 || this.rootNode.utility != EPSILON)) break;
-			runMCTS(this.rootNode);
-			mctsCycles++;
+			if (growing && this.arena.isFull()) break;
+			for (int i : factors) {
+				runMCTS(this.factorSearchers[i], this.factorRoots[i]);
+				mctsCycles++;
+			}
+		}
+		return mctsCycles;
+	}
+
+	/**
+	 * Finds the node for state in the tree below root, or makes a new root.
+	 * Either way, s's transposition table is left holding only the new tree.
+	 */
+	private int recoverRoot(Searcher s, int root, MachineState state) throws GoalDefinitionException, MoveDefinitionException {
+		Integer found = s.transpositions.get(state);
+		int newRoot = (this.arena.state[root].equals(state)) ? root : (found != null) ? found : NONE;
+
+		if (newRoot == NONE) {
+			System.out.println("[Select Move] Lost root node, regenerating...");
+			return makeRoot(s, state);
+		}
+
+		System.out.println("[Select Move] Recovered Root Node from Sub-Tree.");
+		retainTree(s.transpositions, newRoot);
+		return newRoot;
+	}
+
+	/**
+	 * @return a new tree for state, whose nodes s's transposition table holds
+	 */
+	private int makeRoot(Searcher s, MachineState state) throws GoalDefinitionException, MoveDefinitionException {
+		// The arena keeps room for roots (see clearTrees)
+		int root = makeNode(s, NONE, state, true, null);
+		this.arena.level[root] = 0;
+
+		s.transpositions.clear();
+		s.transpositions.put(state, root);
+		return root;
+	}
+
+	/**
+	 * Frees the nodes our trees have played past (the siblings of each move
+	 * played, and everything above them) once the arena is half full, so
+	 * the next search has room to grow.
+	 */
+	private void reclaimNodes() {
+		if (this.arena.size() > this.arena.capacity / 2) compactTrees();
+	}
+
+	/**
+	 * Compacts the arena around the root of every tree, which may prune
+	 * their least visited subtrees too (see TeapotNodeArena.compact), and
+	 * rebuilds the transposition tables for the new indices. No search may
+	 * be running.
+	 */
+	private void compactTrees() {
+		int numWorkers = (this.workerRoots != null) ? this.workerRoots.length : 0;
+		int numFactors = (this.factorRoots != null) ? this.factorRoots.length : 0;
+
+		int[] roots = new int[1 + numWorkers + numFactors];
+		roots[0] = this.rootNode;
+		if (numWorkers > 0) System.arraycopy(this.workerRoots, 0, roots, 1, numWorkers);
+		if (numFactors > 0) System.arraycopy(this.factorRoots, 0, roots, 1 + numWorkers, numFactors);
+
+		this.arena.compact(roots);
+
+		this.rootNode = roots[0];
+		if (numWorkers > 0) System.arraycopy(roots, 1, this.workerRoots, 0, numWorkers);
+		if (numFactors > 0) System.arraycopy(roots, 1 + numWorkers, this.factorRoots, 0, numFactors);
+
+		if (this.rootNode != NONE) retainTree(this.searcher.transpositions, this.rootNode);
+		for (int i = 0; i < numWorkers; i++) {
+			if (this.workerRoots[i] != NONE) retainTree(this.workers[i].transpositions, this.workerRoots[i]);
+		}
+		for (int i = 0; i < numFactors; i++) {
+			if (this.factorRoots[i] != NONE) retainTree(this.factorSearchers[i].transpositions, this.factorRoots[i]);
+		}
+	}
+
+	/**
+	 * Drops every tree, emptying the arena. Each is regrown from its root
+	 * when next searched.
+	 */
+	private void clearTrees() {
+		this.arena.reset();
+		this.rootNode = NONE;
+		if (this.factorRoots != null) Arrays.fill(this.factorRoots, NONE);
+		if (this.workerRoots != null) Arrays.fill(this.workerRoots, NONE);
+	}
+
+	/**
+	 * Drops every state no longer reachable from root from the table. Their
+	 * nodes stay in the arena until it is compacted.
+	 */
+	private void retainTree(ConcurrentMap<MachineState, Integer> transpositions, int root) {
+		TeapotNodeArena a = this.arena;
+		transpositions.clear();
+		transpositions.put(a.state[root], root);
+
+		Deque<Integer> open = new ArrayDeque<>();
+		open.push(root);
+		while (!open.isEmpty()) {
+			int n = open.pop();
+			for (int i = 0; i < a.numChildren.get(n); i++) {
+				int move = a.child(n, i);
+				for (int j = 0; j < a.numChildren.get(move); j++) {
+					int nn = a.child(move, j);
+					if (transpositions.put(a.state[nn], nn) == null) open.push(nn);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the root of every worker's private tree to the current state, or
+	 * gives the worker a new tree (root-parallel search).
+	 */
+	private void recoverWorkerRoots() throws GoalDefinitionException, MoveDefinitionException {
+		if (this.workerRoots == null) return;
+
+		MachineState state = getCurrentState();
+		for (int i = 0; i < this.workerRoots.length; i++) {
+			int root = this.workerRoots[i];
+			this.workerRoots[i] = (root == NONE) ? makeRoot(this.workers[i], state) : recoverRoot(this.workers[i], root, state);
+		}
+	}
+
+	/**
+	 * Sums the statistics of each of our moves over our tree and every
+	 * worker's (root-parallel search). A move solved in any tree keeps its
+	 * solved value, as solving is exact.
+	 *
+	 * @return a root holding the merged children, for selectBestChild (our
+	 * own root if the arena has no room for it)
+	 */
+	private int mergeWorkerRoots() {
+		TeapotNodeArena a = this.arena;
+
+		// The merged statistics of each move, in the order of our tree
+		Map<Move, double[]> merged = new LinkedHashMap<>();
+		int[] roots = new int[this.workerRoots.length + 1];
+		roots[0] = this.rootNode;
+		System.arraycopy(this.workerRoots, 0, roots, 1, this.workerRoots.length);
+		for (int root : roots) {
+			for (int i = 0; i < a.numChildren.get(root); i++) {
+				int n = a.child(root, i);
+				double[] m = merged.get(a.action[n]);
+				if (m == null) {
+					m = new double[]{0, 0, 0, 0};
+					merged.put(a.action[n], m);
+				}
+				m[0] += a.visits[n];
+				m[1] += a.total_utility[n];
+				if (a.finishedComputing[n]) {
+					m[2] = 1;
+					m[3] = a.utility[n];
+				}
+			}
 		}
-		System.out.println("[Teapot] MCTS Cycles: " + mctsCycles);
-		System.out.println("[Teapot] Depth Charges: " + this.totalDepthCharges);
 
+		int root = a.allocate(1);
+		int first = a.allocate(merged.size());
+		int edges = a.allocateEdges(merged.size());
+		if (root == NONE || first == NONE || edges == NONE) return this.rootNode;
+
+		a.state[root] = a.state[this.rootNode];
+		a.maxnode[root] = true;
+		int m = first;
+		for (Map.Entry<Move, double[]> e : merged.entrySet()) {
+			double[] stats = e.getValue();
+			a.action[m] = e.getKey();
+			a.visits[m] = (int) stats[0];
+			a.total_utility[m] = stats[1];
+			a.finishedComputing[m] = stats[2] != 0;
+			a.utility[m] = (stats[2] != 0) ? stats[3] : (stats[0] > 0) ? stats[1] / stats[0] : 0;
+			a.visits[root] += a.visits[m];
+
+			a.edges[edges + m - first] = m;
+			m++;
+		}
+		a.firstEdge[root] = edges;
+		a.numChildren.set(root, merged.size());
+
+		System.out.println("[Teapot] Merged " + roots.length + " Trees (" + a.visits[root] + " Visits)");
+		return root;
+	}
+
+	/**
+	 * Picks the child of root to play, falling back to average scores when
+	 * every child looks lost.
+	 */
+	private int selectBestChild(int root) {
+		TeapotNodeArena a = this.arena;
 		double bestScore = 0.0;
-		Node selectedNode = null;
+		int selectedNode = NONE;
+
+		int numChildren = a.numChildren.get(root);
+		if (numChildren == 0) return NONE;
 
 		System.out.println("[Select Move] Utilities:");
-		for (Node n : this.rootNode.children) {
+		for (int i = 0; i < numChildren; i++) {
+			int n = a.child(root, i);
 			this.lastResort = false;
 
-			System.out.println("\t" + n.action + " (" + n.utility + ")" + " (Visits: " + n.visits + ") " + (n.finishedComputing ? " (Solved)" : ""));
-			if (n.utility >= bestScore) {
-				if (n.utility == 100 && n.finishedComputing) {
+			System.out.println("\t" + a.action[n] + " (" + a.utility[n] + ")" + " (Visits: " + a.visits[n] + ") " + (a.finishedComputing[n] ? " (Solved)" : ""));
+			if (a.utility[n] >= bestScore) {
+				if (a.utility[n] == 100 && a.finishedComputing[n]) {
 					bestScore = Double.POSITIVE_INFINITY;
 					selectedNode = n;
 				} else {
-					bestScore = n.utility;
+					bestScore = a.utility[n];
 					selectedNode = n;
 				}
 			}
@@ -231,9 +582,10 @@ public class TeapotPlayer extends StateMachineGamer {
 
 			System.out.println("[Teapot] Gamer Likely Lost - Selecting Best Move");
 			System.out.println("[Select Move] Last-Resort Utilities:");
-			for (Node n : this.rootNode.children) {
-				double score = (n.visits > 0) ? n.total_utility / n.visits : 0;
-				System.out.println("\t" + n.action + " (" + score + ")" + " (Visits: " + n.visits + ")");
+			for (int i = 0; i < numChildren; i++) {
+				int n = a.child(root, i);
+				double score = (a.visits[n] > 0) ? a.total_utility[n] / a.visits[n] : 0;
+				System.out.println("\t" + a.action[n] + " (" + score + ")" + " (Visits: " + a.visits[n] + ")");
 				if (score >= bestScore) {
 					bestScore = score;
 					selectedNode = n;
@@ -241,22 +593,28 @@ public class TeapotPlayer extends StateMachineGamer {
 			}
 		}
 
-		if (selectedNode != null) {
-			System.out.println("[Select Move] Move: " + selectedNode.action + " Utility: " + selectedNode.utility);
-			return selectedNode.action;
-		}
-
-		return this.stateMachine.getLegalMoves(getCurrentState(), getRole()).get(0);
+		return selectedNode;
 	}
 
 	@Override
 	public void stateMachineStop() {
 		System.out.println("[State Machine] State Machine Stopped.");
+		shutdownPlayoutPool();
+		cancelHotSwap();
+
+		// Where the match's depth charges spent their propagation, over every instance (-Dteapot.profile=true)
+		if (TeapotPropnetProfiler.ENABLED && this.stateMachine instanceof TeapotBetaPropnetStateMachine) {
+			TeapotPropnetProfiler profiler = ((TeapotBetaPropnetStateMachine) this.stateMachine).getProfiler();
+			profiler.report(PROFILE_TOP_N);
+			profiler.renderHeatToFile("propnet-heat.dot");
+		}
 	}
 
 	@Override
 	public void stateMachineAbort() {
 		System.out.println("[State Machine] State Machine Aborted.");
+		shutdownPlayoutPool();
+		cancelHotSwap();
 	}
 
 	@Override
@@ -273,195 +631,443 @@ public class TeapotPlayer extends StateMachineGamer {
 	// MCTS Implementation //
 	/////////////////////////
 
-	private void runMCTS(Node n) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
-		Node selected = null;
-		double score = 0;
-
-		if (!reachingTimeout()) selected = select(n);
-		if (!reachingTimeout()) expand(selected);
-		if (!reachingTimeout()) score = simulateDepthCharge(selected, CHARGES_PER_NODE);
-		if (!reachingTimeout()) backpropagate(selected, score, 1, Double.NEGATIVE_INFINITY);
-	}
-
-	private Node select(Node n) throws GoalDefinitionException {
-		if (reachingTimeout()) return null;
-
-		if (n.state != null && (n.children == null)) return n;
-		if (n.state != null && n.isTerminal) return n;
-		if (n.state != null && n.visits <= 1) return n;
-
-		int seed = (SEED_HEURISTIC) ? 1 : 0;
+	/**
+	 * Runs MCTS from the root until the timeout, or until it is won (in the
+	 * metagame) or solved (during play). With tree-parallel search every
+	 * worker runs the same loop on its own thread, on the same tree; with
+	 * root-parallel search each worker runs it on a tree of its own.
+	 *
+	 * Whenever the arena fills up, every thread stops while it is compacted,
+	 * and the search goes on with the room freed. If compacting cannot free
+	 * enough, it goes on without growing the trees instead.
+	 *
+	 * @return the number of MCTS cycles run
+	 */
+	private int search(boolean metagame) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		int mctsCycles = 0;
+		boolean growing = true;
+		while (true) {
+			mctsCycles += search(this.rootNode, metagame, growing);
+			if (!growing || !this.arena.isFull() || reachingTimeout()) break;
 
-		for (Node nn : n.children) {
-			if (nn.visits <= seed && nn.state != null) return nn;
-			else if (nn.visits <= seed && nn.state == null) return select(nn);
+			compactTrees();
+			growing = !this.arena.isFull();
 		}
 
-		double score = Double.NEGATIVE_INFINITY;
-		Node selected = null;
-
-		for (Node nn : n.children) {
-			if (nn.finishedComputing && !this.lastResort) continue;
+		this.totalDepthCharges += this.searcher.depthCharges;
+		this.searcher.depthCharges = 0;
+		if (this.workers != null) {
+			for (Searcher w : this.workers) {
+				this.totalDepthCharges += w.depthCharges;
+				w.depthCharges = 0;
+			}
+		}
+		return mctsCycles;
+	}
 
-			double s = selectfn(nn);
+	/**
+	 * Runs searchLoop on every thread until they are all done.
+	 */
+	private int search(final int root, final boolean metagame, final boolean growing) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		if (this.workers == null) return searchLoop(this.searcher, root, metagame, growing);
+
+		final int[] roots = new int[this.workers.length];
+		for (int i = 0; i < roots.length; i++) roots[i] = (this.workerRoots != null) ? this.workerRoots[i] : root;
+
+		final int[] cycles = new int[this.workers.length];
+		Thread[] threads = new Thread[this.workers.length];
+		for (int i = 0; i < this.workers.length; i++) {
+			final int w = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						cycles[w] = searchLoop(TeapotPlayer.this.workers[w], roots[w], metagame, growing);
+					} catch (Exception e) {
+						System.out.println("[Teapot] (Parallel) Worker #" + w + " Error");
+						e.printStackTrace();
+					}
+				}
+			}, "MCTS Worker #" + i);
+			threads[i].start();
+		}
 
-			if (s >= score) {
-				score = s;
-				selected = nn;
+		int mctsCycles = searchLoop(this.searcher, root, metagame, growing);
+		for (int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				System.out.println("[Teapot] (Parallel) Interrupted");
 			}
+			mctsCycles += cycles[i];
 		}
+		return mctsCycles;
+	}
 
-		return (selected == null) ? n : select(selected);
+	/**
+	 * @param growing stop once the arena is full, to have it compacted
+	 */
+	private int searchLoop(Searcher s, int root, boolean metagame, boolean growing) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		TeapotNodeArena a = this.arena;
+		int mctsCycles = 0;
+		while (!reachingTimeout()) {
+			if (metagame && a.finishedComputing[root] && a.utility[root] == 100) break;
+			if (!metagame && a.finishedComputing[root] && (a.utility[root] != 0 || a.utility[root] != EPSILON)) break;
+			if (growing && a.isFull()) break;
+			runMCTS(s, root);
+			mctsCycles++;
+		}
+		return mctsCycles;
 	}
 
-	private void expand(Node n) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
-		if (reachingTimeout()) return;
-		if (n.finishedComputing) return;
-		if (n.isTerminal) return;
-		if (n.children != null) return;
+	private void runMCTS(Searcher s, int n) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		int selected = NONE;
+		double score = NOT_PLAYED;
 
-		List<Move> moves = this.stateMachine.getLegalMoves(n.state, getRole());
+		s.pathLength = 0;
+		if (!reachingTimeout()) selected = select(s, n);
+		if (selected == NONE) return;
 
-		n.children = new Node[moves.size()];
+		// Steer the other workers away from this path until its playout is backed up
+		if (s.sharedTree) addVirtualLoss(s, 1);
+		try {
+			if (this.arena.state[selected] == null) {
+				// A move node select just solved from its children: back up its value
+				score = this.arena.utility[selected];
+			} else {
+				if (!reachingTimeout()) expand(s, selected);
+				if (!reachingTimeout()) score = simulateDepthCharge(s, this.arena.state[selected], CHARGES_PER_NODE);
+			}
+			if (score != NOT_PLAYED && !reachingTimeout()) backpropagate(s, score);
+		} finally {
+			if (s.sharedTree) addVirtualLoss(s, -1);
+		}
+	}
 
-		// Create Children
-		for (int i = 0; i < moves.size(); i++) {
-			n.children[i] = makeNode(n, n.state, !n.maxnode, moves.get(i));
+	/**
+	 * Walks down from n, recording the nodes passed in s.path: the tree is a
+	 * graph (see expand), so a node's parent is only known from the path.
+	 */
+	private int select(Searcher s, int n) throws GoalDefinitionException {
+		TeapotNodeArena a = this.arena;
+		if (reachingTimeout()) return NONE;
+		if (a.state[n] != null && s.onPath(n)) {
+			// A repeated position closes a cycle: play out from the state we left instead
+			s.pathLength--;
+			return s.path[s.pathLength - 1];
+		}
+		s.push(n);
 
-			// Grandchildren
+		int numChildren = a.numChildren.get(n);
+		if (a.state[n] != null && numChildren == 0) return n;
+		if (a.state[n] != null && a.isTerminal[n]) return n;
+		if (a.state[n] != null && a.visits[n] <= 1) return n;
 
-			Node child = n.children[i];
-			child.indexInParent = i;
+		int seed = (SEED_HEURISTIC) ? 1 : 0;
 
-			List<List<Move>> jointMoves = this.stateMachine.getLegalJointMoves(child.state, getRole(), moves.get(i));
-			child.children = new Node[jointMoves.size()];
+		for (int i = 0; i < numChildren; i++) {
+			int nn = a.child(n, i);
+			if (a.visits[nn] + a.virtualLoss.get(nn) <= seed && a.state[nn] != null) {
+				s.push(nn);
+				return nn;
+			} else if (a.visits[nn] + a.virtualLoss.get(nn) <= seed && a.state[nn] == null) {
+				return select(s, nn);
+			}
+		}
 
-			for (int j = 0; j < jointMoves.size(); j++) {
-				MachineState newState = this.stateMachine.getNextState(child.state, jointMoves.get(j));
+		double score = Double.NEGATIVE_INFINITY;
+		int selected = NONE;
+
+		for (int i = 0; i < numChildren; i++) {
+			int nn = a.child(n, i);
+			if (a.finishedComputing[nn] && !this.lastResort) {
+				// nn may have been solved below another parent
+				if (!a.finishedComputing[n]) finishChild(n, nn, a.utility[nn]);
+				continue;
+			}
 
-				child.children[j] = makeNode(child, newState, !child.maxnode, child.action);
-				child.children[j].indexInParent = j;
+			double sc = selectfn(n, nn);
 
-				if (child.children[j].finishedComputing) {
-					// backpropagate(child.children[j], child.children[j].utility, 1);
-				}
+			if (sc >= score) {
+				score = sc;
+				selected = nn;
 			}
-
-			// It's the same as parent, so we want to skip.
-			child.state = null;
 		}
-	}
-
-	private double simulateDepthCharge(Node n, double count) {
-		// May the depth charge be with you
 
-		if (MULTITHREADING_ENABLED) {
-			for (int i = 0; i < NUM_THREADS; i++) {
-				chargers[i].setState(n.state);
-				threads[i].start();
+		if (selected == NONE && a.state[n] == null) {
+			// Every child of this move node is solved, some maybe below other
+			// parents, or a worker is just solving it
+			synchronized (a.lock(n)) {
+				for (int i = 0; i < numChildren; i++) if (!a.finishedComputing[a.child(n, i)]) return NONE;
+				if (!a.finishedComputing[n]) solveFromChildren(n);
 			}
+			return n;
+		}
+		return (selected == NONE) ? n : select(s, selected);
+	}
 
-			for (int i = 0; i < NUM_THREADS; i++) {
-				try {
-					threads[i].join();
-				} catch (InterruptedException e) {
-					System.out.println("[Teapot] (Multithreading) Depth Charge Error");
-					e.printStackTrace();
+	private void expand(Searcher s, int n) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		TeapotNodeArena a = this.arena;
+		if (reachingTimeout()) return;
+		if (a.finishedComputing[n]) return;
+		if (a.isTerminal[n]) return;
+		if (a.numChildren.get(n) != 0) return;
+
+		synchronized (a.lock(n)) {
+			// Another worker may have expanded n while we waited
+			if (a.numChildren.get(n) != 0) return;
+
+			// One evaluation of the state for every role's legal moves
+			MachineState state = a.state[n];
+			List<List<Move>> legals = s.machine.getAllLegalMoves(state);
+			List<Move> moves = legals.get(this.roleIndex);
+
+			// Built aside and published whole, for the workers reading the tree.
+			// If the arena runs out, n stays a leaf.
+			int first = a.allocate(moves.size());
+			int edges = a.allocateEdges(moves.size());
+			if (first == NONE || edges == NONE) return;
+
+			// Create Children
+			for (int i = 0; i < moves.size(); i++) {
+				int child = first + i;
+				initNode(s, child, n, state, !a.maxnode[n], moves.get(i));
+				a.edges[edges + i] = child;
+
+				// Grandchildren
+
+				List<List<Move>> jointMoves = s.machine.getLegalJointMoves(legals, getRole(), moves.get(i));
+				int grandchildren = a.allocateEdges(jointMoves.size());
+				if (grandchildren == NONE) return;
+
+				for (int j = 0; j < jointMoves.size(); j++) {
+					MachineState newState = s.machine.getNextState(state, jointMoves.get(j));
+
+					// A state reached before (by any move order) is the same node
+					int grandchild = transpose(s, child, newState);
+					if (grandchild == NONE) return;
+					a.edges[grandchildren + j] = grandchild;
 				}
+				a.firstEdge[child] = grandchildren;
+				a.numChildren.set(child, jointMoves.size());
+
+				// It's the same as parent, so we want to skip.
+				a.state[child] = null;
 			}
 
-			double score = 0;
+			a.firstEdge[n] = edges;
+			a.numChildren.set(n, moves.size());
+		}
+	}
 
-			for (int i = 0; i < NUM_THREADS; i++) {
-				score += chargers[i].getUtility();
-			}
+	/**
+	 * @return the average of our goals over the charges played, or
+	 * NOT_PLAYED if the timeout cut every one of them short
+	 */
+	private double simulateDepthCharge(Searcher s, MachineState state, double count) {
+		// May the depth charge be with you
 
-			return score / NUM_THREADS;
+		if (this.playoutPool != null && s == this.searcher) {
+			// CHARGES_PER_NODE on every thread, in about the time of one thread's
+			double score = this.playoutPool.playout(state, CHARGES_PER_NODE, CHARGES_PER_NODE, this.ownCharge, this.timeout);
+			s.depthCharges += CHARGES_PER_NODE * (this.playoutPool.size() + 1);
+
+			return score;
+		} else if (this.propnetAttached && USE_BATCH_DEPTH_CHARGES && s.machine instanceof TeapotBetaPropnetStateMachine) {
+			// 64 depth charges per call, one per bit of the propnet's words
+			int[] scores = ((TeapotBetaPropnetStateMachine) s.machine).performBatchDepthCharge(state, getRole(), this.timeout);
+			if (scores == null) return NOT_PLAYED;
+			double total = 0;
+			for (int score : scores) total += score;
+			s.depthCharges += scores.length;
+
+			return total / scores.length;
 		} else {
-			double total = 0, i = 0;
+			double total = 0, played = 0;
 
-			for (; i < count; i++) {
+			for (int i = 0; i < count; i++) {
 				if (reachingTimeout() && i != 0) break;
 				try {
-					total += depthCharge(n.state);
-					this.totalDepthCharges += 1;
+					int score = depthCharge(s, state);
+					if (score == NOT_PLAYED) break;
+					total += score;
+					played++;
+					s.depthCharges += 1;
 				} catch (Exception e) {
 					System.out.println("[Teapot] Depth Charge Error");
 				}
 			}
 
-			return (i == 0) ? 0 : total / i;
+			return (played == 0) ? NOT_PLAYED : total / played;
 		}
 	}
 
-	private void backpropagate(Node n, double score, int visit, double prevUtility) {
-		if (n == null) return;
+	/**
+	 * Backs score up the path select took. A node with several parents is
+	 * updated once, through the parent on the path, so its statistics count
+	 * every playout through it whichever parent it came from. Each node is
+	 * updated under its own lock, so workers backing up through different
+	 * parts of the tree rarely wait on each other.
+	 */
+	private void backpropagate(Searcher s, double score) {
+		TeapotNodeArena a = this.arena;
+		for (int i = s.pathLength - 1; i >= 0; i--) {
+			int n = s.path[i];
+
+			boolean finished;
+			double utility;
+			synchronized (a.lock(n)) {
+				// Quick Check
+				if (a.isTerminal[n]) a.finishedComputing[n] = true;
+
+				a.total_utility[n] += score;
+				a.visits[n] += 1;
+				if (!a.finishedComputing[n]) a.utility[n] = a.total_utility[n] / a.visits[n];		// More Numerically Stable Calculation
+
+				// Solver Starts
+				int numChildren = a.numChildren.get(n);
+				if (numChildren != 0 && a.finishedChildren[n] == numChildren) solveFromChildren(n);
+
+				finished = a.finishedComputing[n];
+				utility = a.utility[n];
+			}
 
-		// Quick Check
-		if (n.isTerminal) n.finishedComputing = true;
+			if (finished && i > 0) finishChild(s.path[i - 1], n, utility);
+			// Solver Ends
+		}
+	}
 
-		n.total_utility += score;
-		n.visits += visit;
-		if (!n.finishedComputing) n.utility = n.total_utility / n.visits;		// More Numerically Stable Calculation
+	/**
+	 * Solves n (whose lock the caller holds) by minimax over its children.
+	 */
+	private void solveFromChildren(int n) {
+		TeapotNodeArena a = this.arena;
+		a.finishedComputing[n] = true;
+
+		boolean maxnode = a.maxnode[n];
+		double util = (maxnode) ? Double.MIN_VALUE : Double.MAX_VALUE;
+		for (int i = 0; i < a.numChildren.get(n); i++) {
+			double u = a.utility[a.child(n, i)];
+			if (maxnode && u > util) util = u;
+			else if (!maxnode && u < util) util = u;
+		}
 
-		// Solver Starts
-		if (n.children != null && n.finishedChildren.cardinality() == n.children.length) {
-			n.backup_utility = n.utility;
-			n.finishedComputing = true;
+		a.utility[n] = util;
+	}
 
-			double util = (n.maxnode) ? Double.MIN_VALUE : Double.MAX_VALUE;
-			for (Node nn : n.children) {
-				if (nn == null) continue;
-				if (n.maxnode && nn.utility > util) util = nn.utility;
-				else if (!n.maxnode && nn.utility < util) util = nn.utility;
+	/**
+	 * Records in parent that child is solved (with utility), solving parent
+	 * too if child decides it. A child reached by several joint moves is
+	 * counted once for each.
+	 */
+	private void finishChild(int parent, int child, double utility) {
+		TeapotNodeArena a = this.arena;
+		synchronized (a.lock(parent)) {
+			if (a.maxnode[child] && (utility == 0 || utility == EPSILON)) {
+				a.finishedComputing[parent] = true;
+				a.utility[parent] = utility;
+			} else if (!a.maxnode[child] && utility == 100) {
+				a.finishedComputing[parent] = true;
+				a.utility[parent] = utility;
 			}
 
-			n.utility = util;
-		}
-
-		if (n.parent != null && n.maxnode && n.finishedComputing && (n.utility == 0 || n.utility == EPSILON)) {
-			n.parent.finishedComputing = true;
-			n.parent.backup_utility = n.parent.utility;
-			n.parent.utility = n.utility;
-		} else if (n.parent != null && !n.maxnode && n.finishedComputing && n.utility == 100) {
-			n.parent.finishedComputing = true;
-			n.parent.backup_utility = n.parent.utility;
-			n.parent.utility = n.utility;
+			int first = a.firstEdge[parent];
+			int last = first + a.numChildren.get(parent);
+			for (int e = first; e < last; e++) {
+				if (a.edges[e] != child || a.finishedEdges[e]) continue;
+				a.finishedEdges[e] = true;
+				a.finishedChildren[parent]++;
+			}
 		}
+	}
 
-		if (n.finishedComputing && n.parent != null) {
-			n.parent.finishedChildren.set(n.indexInParent);
-		}
-		// Solver Ends
+	/**
+	 * Adds (or with -1, takes back) a virtual loss on every node of s.path.
+	 */
+	private void addVirtualLoss(Searcher s, int delta) {
+		for (int i = 0; i < s.pathLength; i++) this.arena.virtualLoss.addAndGet(s.path[i], delta);
+	}
 
-		backpropagate(n.parent, score, visit, n.utility);
+	/**
+	 * @return the node for state in s's tree, made (as a child of move) if
+	 * the tree does not have it yet, or NONE if the arena is full
+	 */
+	private int transpose(Searcher s, int move, MachineState state) throws GoalDefinitionException, MoveDefinitionException {
+		Integer n = s.transpositions.get(state);
+		if (n != null) return n;
+
+		int made = makeNode(s, move, state, !this.arena.maxnode[move], this.arena.action[move]);
+		if (made == NONE) return NONE;
+		Integer raced = s.transpositions.putIfAbsent(state, made);
+		return (raced != null) ? raced : made;
 	}
 
 	/////////////////////
 	// Select Function //
 	/////////////////////
 
-	private double selectfn(Node node) throws GoalDefinitionException {
+	private double selectfn(int parent, int node) throws GoalDefinitionException {
+		TeapotNodeArena a = this.arena;
 		// double decay = (node.level <= 1) ? 1 : 1.0 / Math.log(node.level);
-		double decay = (DECAY_HEURISTICS) ? Math.max(0.16, (100.0 - node.level / 2.0) / 100.0) : 1;
-		double utility = node.utility;
-		double heuristic = (SEED_HEURISTIC) ? 0 : node.heuristic;
+		double decay = (DECAY_HEURISTICS) ? Math.max(0.16, (100.0 - a.level[node] / 2.0) / 100.0) : 1;
+		double utility = a.utility[node];
+		double visits = a.visits[node];
+		// A parent can be newer than its children when they are shared (see transpose)
+		double parentVisits = Math.max(1, a.visits[parent] + a.virtualLoss.get(parent));
+		double heuristic = (SEED_HEURISTIC) ? 0 : a.heuristic[node];
 
 		double c_value = BRIAN_C_FACTOR * decay;
 
-		if (node.finishedComputing && node.utility == 0) return Double.NEGATIVE_INFINITY;
+		if (a.finishedComputing[node] && a.utility[node] == 0) return Double.NEGATIVE_INFINITY;
+
+		int virtualLoss = a.virtualLoss.get(node);
+		if (virtualLoss > 0 && !a.finishedComputing[node]) {
+			// Playouts in flight count as losses for whoever picks node (and as
+			// visits of its parent, which they may not have reached yet)
+			double loss = (a.maxnode[node] && this.stateMachine.findRoles().size() > 1) ? 100 : 0;
+			utility = (a.total_utility[node] + virtualLoss * loss) / (a.visits[node] + virtualLoss);
+			visits += virtualLoss;
+		}
+		double exploration = c_value * Math.sqrt(Math.log(parentVisits)/visits);
 
 		if (this.stateMachine.findRoles().size() == 1) {
-			return (utility + heuristic) + c_value * Math.sqrt(Math.log(node.parent.visits)/node.visits);
+			return (utility + heuristic) + exploration;
 		}
 
-		if (node.maxnode) {
-			return -(utility + heuristic) + c_value * Math.sqrt(Math.log(node.parent.visits)/node.visits);
+		if (a.maxnode[node]) {
+			return -(utility + heuristic) + exploration;
 		} else {
-			return (utility + heuristic) + c_value * Math.sqrt(Math.log(node.parent.visits)/node.visits);
+			return (utility + heuristic) + exploration;
 		}
 	}
 
+	/////////////
+	// Testing //
+	/////////////
+
+	/**
+	 * Grows a tree for the match's current state in arena with exactly
+	 * cycles MCTS cycles on this thread, on machine (initialized, and used
+	 * directly), with no clock and no heuristics, so tests get a tree that
+	 * does not depend on timing.
+	 *
+	 * @return the root of the tree
+	 */
+	int growTree(TeapotNodeArena arena, StateMachine machine, int cycles) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		switchStateMachine(machine);
+		this.stateMachine = machine;
+		this.roleIndex = machine.getRoleIndices().get(getRole());
+		this.arena = arena;
+		this.timeout = Long.MAX_VALUE;
+
+		TeapotHeuristics none = new TeapotHeuristics();
+		none.hasHeuristics = false;
+		this.searcher = new Searcher(machine, none, false, null);
+		this.rootNode = makeRoot(this.searcher, getCurrentState());
+		for (int i = 0; i < cycles; i++) runMCTS(this.searcher, this.rootNode);
+		return this.rootNode;
+	}
+
 	//////////////
 	// Timeout! //
 	//////////////
@@ -474,10 +1080,167 @@ public class TeapotPlayer extends StateMachineGamer {
 	//  Helper  //
 	//////////////
 
-	private int depthCharge(MachineState state) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		StateMachine machine = getStateMachine();
+	/**
+	 * Moves the search onto the propnet once it is available, and sets up
+	 * everything that needs one: the move and state buffers, the solver and
+	 * depth charge machines, factoring and latches. Before the background
+	 * build finishes this does nothing, so it is retried every move.
+	 *
+	 * @return true if the propnet was attached by this call
+	 */
+	private boolean attachPropnet() {
+		if (!USE_PROPNET || this.propnetAttached) return false;
+		if (this.hotSwap != null) {
+			StateMachine propnet = this.hotSwap.getPropnet();
+			if (propnet == null) return false;
+
+			// Replays the match on the propnet, so the current state is one of its states
+			switchStateMachine(propnet);
+			if (getStateMachine() != propnet) return false;
+			this.stateMachine = propnet;
+			this.hotSwap = null;
+			System.out.println("[Teapot] Switched to the PropNet");
+		}
+		this.propnetAttached = true;
+
+		// One propnet build, shared by every machine
+		this.solverStateMachine = createPropnetInstance();
+		for (int i = 0; i < NUM_THREADS; i++) this.multiStateMachine[i] = createPropnetInstance();
+
+		if (USE_FACTORING) {
+			// Independent subgames get a search tree each (see selectFactoredMove)
+			TeapotPropnetTopology topology = getPropnetTopology();
+			List<TeapotPropnetFactor> factors = TeapotPropnetFactor.analyze(topology);
+			if (factors.size() > 1) {
+				// Parallel search spreads the factors over the threads, each on its own machine
+				this.factorThreads = (SEARCH_STRATEGY != SEQUENTIAL_SEARCH) ? NUM_THREADS : 1;
+				this.factorMachines = new ArrayList<>();
+				for (int i = 0; i < factors.size(); i++) this.factorMachines.add(new TeapotFactorStateMachine(factorMachine(i), topology, factors.get(i), factors));
+				this.factorRoots = new int[factors.size()];
+				Arrays.fill(this.factorRoots, NONE);
+				System.out.println("[Teapot] Searching " + factors.size() + " Factors Independently");
+			}
+		}
+
+		if (USE_LATCHES) {
+			// Only worth checking if a latch can decide our goal
+			TeapotPropnetLatches l = TeapotPropnetLatches.analyze(getPropnetTopology());
+			if (l.hasGoalLatches(this.roleIndex)) this.latches = l;
+		}
+		return true;
+	}
+
+	/**
+	 * Sets up the searcher for this thread and, for parallel search, a worker
+	 * (or playout pool thread) per depth charge machine. These need machines
+	 * of their own, so the search stays on this thread while we are still on
+	 * the hot-swap machine. Root-parallel workers get their trees in
+	 * recoverWorkerRoots. Factor searchers are set up here too, once the
+	 * heuristics they copy have been calculated.
+	 */
+	private void createSearchers() {
+		this.workers = null;
+		this.workerRoots = null;
+		shutdownPlayoutPool();
+		if (this.factorMachines != null) {
+			this.factorSearchers = new Searcher[this.factorMachines.size()];
+			for (int i = 0; i < this.factorSearchers.length; i++) {
+				StateMachine machine = factorMachine(i);
+				TeapotHeuristics heuristics = (machine == this.stateMachine) ? this.teapotHeuristics : this.teapotHeuristics.copyFor(machine);
+				this.factorSearchers[i] = new Searcher(this.factorMachines.get(i), heuristics, false, null);
+			}
+		}
+		boolean parallel = SEARCH_STRATEGY != SEQUENTIAL_SEARCH && NUM_THREADS > 1 && this.hotSwap == null;
+		boolean sharedTree = parallel && SEARCH_STRATEGY == TREE_PARALLEL_SEARCH;
+		final Searcher s = new Searcher(this.stateMachine, this.teapotHeuristics, sharedTree, null);
+		this.searcher = s;
+		if (!parallel) return;
+
+		if (SEARCH_STRATEGY == LEAF_PARALLEL_SEARCH) {
+			this.playoutPool = new TeapotPlayoutPool(Arrays.copyOf(this.multiStateMachine, NUM_THREADS - 1), getRole());
+			this.ownCharge = new TeapotPlayoutPool.Charge() {
+				@Override
+				public int charge(MachineState state) throws Exception {
+					return depthCharge(s, state);
+				}
+			};
+			System.out.println("[Teapot] Leaf-Parallel Search on " + NUM_THREADS + " Threads");
+			return;
+		}
+
+		this.workers = new Searcher[NUM_THREADS - 1];
+		for (int i = 0; i < this.workers.length; i++) {
+			StateMachine machine = this.multiStateMachine[i];
+			// Tree-parallel workers share our transposition table with our tree
+			this.workers[i] = new Searcher(machine, this.teapotHeuristics.copyFor(machine), sharedTree, (sharedTree) ? s.transpositions : null);
+		}
+		if (!sharedTree) {
+			this.workerRoots = new int[this.workers.length];
+			Arrays.fill(this.workerRoots, NONE);
+		}
+		System.out.println("[Teapot] " + ((sharedTree) ? "Tree" : "Root") + "-Parallel Search on " + NUM_THREADS + " Threads");
+	}
+
+	/**
+	 * @return the machine of the thread searching factor i: this.stateMachine
+	 * on this thread, else a depth charge machine
+	 */
+	private StateMachine factorMachine(int i) {
+		int t = i % this.factorThreads;
+		return (t == 0) ? this.stateMachine : this.multiStateMachine[t - 1];
+	}
+
+	private void shutdownPlayoutPool() {
+		if (this.playoutPool == null) return;
+		this.playoutPool.shutdown();
+		this.playoutPool = null;
+		this.ownCharge = null;
+	}
+
+	private void cancelHotSwap() {
+		if (this.hotSwap == null) return;
+		this.hotSwap.cancel();
+		this.hotSwap = null;
+	}
+
+	private StateMachine createPropnetInstance() {
+		if (USE_COMPILED_PROPNET) return ((TeapotCompiledPropnetStateMachine)this.stateMachine).createInstance();
+		return ((TeapotBetaPropnetStateMachine)this.stateMachine).createInstance();
+	}
+
+	private TeapotPropnetTopology getPropnetTopology() {
+		return ((TeapotIndexedStateMachine) this.stateMachine).getTopology();
+	}
+
+	/**
+	 * @return our goal if a latch in state has already decided it, else -1
+	 */
+	private int decidedGoal(MachineState state) {
+		if (this.latches == null) return -1;
+		return this.latches.decidedGoal(state.getPropContents(), this.roleIndex);
+	}
+
+	/**
+	 * @return our goal at the end of a random playout from state, or
+	 * NOT_PLAYED if the timeout cut it short
+	 */
+	private int depthCharge(Searcher s, MachineState state) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		StateMachine machine = s.machine;
+		if (s.legalBuffers != null) {
+			TeapotIndexedStateMachine indexed = (TeapotIndexedStateMachine) machine;
+
+			// Latches have to watch every state, so only a latch-free search can
+			// leave the whole playout to the machine
+			if (this.latches != null) return indexedDepthCharge(s, indexed, state);
+			if (indexed.performFusedDepthCharge(state, s.goalBuffer, this.timeout) < 0) return NOT_PLAYED;
+			return s.goalBuffer[this.roleIndex];
+		}
+
+		while (!machine.isTerminal(state)) {
+			if (reachingTimeout()) return NOT_PLAYED;
+			int decided = decidedGoal(state);
+			if (decided >= 0) return decided;
 
-		while (!machine.isTerminal(state) && !reachingTimeout()) {
 			state = machine.getNextState(state, machine.getRandomJointMove(state));
 		}
 		int score = machine.getGoal(state, getRole());
@@ -485,30 +1248,119 @@ public class TeapotPlayer extends StateMachineGamer {
 		return score;
 	}
 
-	private Node makeNode(Node parent, MachineState state, boolean maxnode, Move action) throws GoalDefinitionException, MoveDefinitionException {
-		Node newNode = new Node(parent, state, maxnode, action);
-
-		if (state != null && this.stateMachine.isTerminal(state)) {
-			newNode.isTerminal = true;
-			newNode.utility = this.stateMachine.getGoal(state, getRole());
+	/**
+	 * depthCharge on move indices, advancing a single state buffer in place,
+	 * so a playout makes no garbage at all.
+	 */
+	private int indexedDepthCharge(Searcher s, TeapotIndexedStateMachine indexed, MachineState state) throws TransitionDefinitionException, GoalDefinitionException {
+		StateMachine machine = s.machine;
+		MachineState current = s.stateBuffer;
+		indexed.copyState(state, current);
+
+		while (!machine.isTerminal(current)) {
+			if (reachingTimeout()) return NOT_PLAYED;
+			int decided = decidedGoal(current);
+			if (decided >= 0) return decided;
+
+			DepthCharger.randomJointMove(indexed, current, s.legalBuffers, s.jointMoveBuffer);
+			indexed.advanceInPlace(current, s.jointMoveBuffer);
 		}
+		return machine.getGoal(current, getRole());
+	}
 
-		if (state != null && this.teapotHeuristics.hasHeuristics) {
-			double heuristic = (USE_HEURISTICS) ? this.teapotHeuristics.compute(state) : 0;
-			if (SEED_HEURISTIC) newNode.utility = heuristic;
-			newNode.heuristic = heuristic;
+	/**
+	 * @return a new node, or NONE if the arena is full
+	 */
+	private int makeNode(Searcher s, int parent, MachineState state, boolean maxnode, Move action) throws GoalDefinitionException, MoveDefinitionException {
+		int n = this.arena.allocate(1);
+		if (n != NONE) initNode(s, n, parent, state, maxnode, action);
+		return n;
+	}
 
-			// This is an experiment
-			// if (parent != null && parent.state == null) parent.heuristic += newNode.heuristic / parent.children.length;
+	/**
+	 * Fills in the fresh node n.
+	 */
+	private void initNode(Searcher s, int n, int parent, MachineState state, boolean maxnode, Move action) throws GoalDefinitionException, MoveDefinitionException {
+		TeapotNodeArena a = this.arena;
+		a.state[n] = state; a.maxnode[n] = maxnode; a.action[n] = action;
+
+		if (state != null && s.machine.isTerminal(state)) {
+			a.isTerminal[n] = true;
+			a.utility[n] = s.machine.getGoal(state, getRole());
+		} else if (state != null && decidedGoal(state) >= 0) {
+			// Our outcome is latched, so nothing below here can change it
+			a.isTerminal[n] = true;
+			a.utility[n] = decidedGoal(state);
 		}
 
-		if (this.teapotHeuristics.hasHeuristics && SEED_HEURISTIC) newNode.visits = 1;
+		if (state != null && s.heuristics.hasHeuristics) {
+			double heuristic = (USE_HEURISTICS) ? s.heuristics.compute(state) : 0;
+			if (SEED_HEURISTIC) a.utility[n] = heuristic;
+			a.heuristic[n] = heuristic;
+		}
 
-		newNode.reference_utility = (newNode.maxnode) ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
-		newNode.finishedChildren = new BitSet();
+		if (s.heuristics.hasHeuristics && SEED_HEURISTIC) a.visits[n] = 1;
 
-		if (parent != null) newNode.level = parent.level + 1;
+		if (parent != NONE) a.level[n] = a.level[parent] + 1;
+	}
 
-		return newNode;
+	/**
+	 * What a thread needs of its own to search: a state machine with its move
+	 * and state buffers, heuristics evaluated on that machine, and a depth
+	 * charge count. The tree may be shared (see sharedTree).
+	 */
+	private static final class Searcher {
+		final StateMachine machine;
+		final TeapotHeuristics heuristics;
+
+		/** Other searchers share the tree, so paths are marked with virtual losses **/
+		final boolean sharedTree;
+
+		/** Every state node of the tree by state, shared by the searchers of one tree **/
+		final ConcurrentMap<MachineState, Integer> transpositions;
+
+		/** The nodes select passed through in the current MCTS cycle **/
+		int[] path = new int[64];
+		int pathLength = 0;
+
+		/** Preallocated move and state buffers for depthCharge, when machine is indexed (else null) **/
+		final int[][] legalBuffers;
+		final int[] jointMoveBuffer;
+		final int[] goalBuffer;
+		final MachineState stateBuffer;
+
+		int depthCharges = 0;
+
+		/**
+		 * @param transpositions the table of the tree to share, or null for a
+		 * tree of its own
+		 */
+		Searcher(StateMachine machine, TeapotHeuristics heuristics, boolean sharedTree, ConcurrentMap<MachineState, Integer> transpositions) {
+			this.machine = machine; this.heuristics = heuristics; this.sharedTree = sharedTree;
+			this.transpositions = (transpositions != null) ? transpositions : new ConcurrentHashMap<MachineState, Integer>();
+
+			this.legalBuffers = DepthCharger.createLegalBuffers(machine);
+			if (this.legalBuffers != null) {
+				this.jointMoveBuffer = new int[this.legalBuffers.length];
+				this.goalBuffer = new int[this.legalBuffers.length];
+				this.stateBuffer = ((TeapotIndexedStateMachine) machine).createStateBuffer();
+			} else {
+				this.jointMoveBuffer = null;
+				this.goalBuffer = null;
+				this.stateBuffer = null;
+			}
+		}
+
+		void push(int n) {
+			if (this.pathLength == this.path.length) this.path = Arrays.copyOf(this.path, this.pathLength * 2);
+			this.path[this.pathLength++] = n;
+		}
+
+		boolean onPath(int n) {
+			for (int i = 0; i < this.pathLength; i++) {
+				if (this.path[i] == n) return true;
+			}
+			return false;
+		}
 	}
 }
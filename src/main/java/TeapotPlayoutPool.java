@@ -0,0 +1,199 @@
+/**
+ * Long-lived depth charge threads for leaf-parallel search. Each worker owns
+ * a DepthCharger on a state machine of its own and waits on a request
+ * counter; playout() hands the same leaf state to every worker, plays its own
+ * share on the calling thread, and averages the results.
+ *
+ * Handoff is a volatile write on each side. Workers spin for a while after
+ * each request so the next one is picked up within microseconds, and park
+ * once the search goes quiet (between moves) so they do not burn the cores.
+ *
+ * Every request carries a deadline. Nobody starts a charge after it, and the
+ * caller stops waiting for a worker still busy at the deadline and leaves
+ * that worker's charges out of the average.
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+
+final class TeapotPlayoutPool {
+
+	// MARK: - Constants
+
+	/** Checks of the request counter before a worker parks (and before the caller yields) **/
+	private static final int SPINS = 1 << 16;
+
+	// MARK: - Variables
+
+	private final Worker[] workers;
+
+	/** Requests made so far; a worker serves request n once it sees requested == n **/
+	private int requests = 0;
+
+	/**
+	 * @param machines one initialized state machine per worker thread, none of
+	 * them used by the caller
+	 */
+	TeapotPlayoutPool(StateMachine[] machines, Role role) {
+		this.workers = new Worker[machines.length];
+		for (int i = 0; i < machines.length; i++) {
+			this.workers[i] = new Worker(new DepthCharger(machines[i], null, role));
+			Thread t = new Thread(this.workers[i], "Playout Worker #" + i);
+			t.setDaemon(true);
+			this.workers[i].thread = t;
+			t.start();
+		}
+	}
+
+	/**
+	 * Plays charges depth charges from state on every worker, and ownCharges
+	 * through ownCharge on the calling thread while they run, stopping at
+	 * deadline (in System.currentTimeMillis terms). Only one thread may call
+	 * this at a time.
+	 *
+	 * @return the average utility over the charges played, or -1 if the
+	 * deadline cut every one of them short
+	 */
+	double playout(MachineState state, int charges, int ownCharges, Charge ownCharge, long deadline) {
+		int request = ++this.requests;
+		for (Worker w : this.workers) {
+			w.state = state;
+			w.charges = charges;
+			w.deadline = deadline;
+			w.requested = request;
+			if (w.parked) LockSupport.unpark(w.thread);
+		}
+
+		double total = 0;
+		int played = 0;
+		for (int i = 0; i < ownCharges; i++) {
+			if (i != 0 && System.currentTimeMillis() > deadline) break;
+			try {
+				int utility = ownCharge.charge(state);
+				if (utility < 0) break;
+				total += utility;
+				played++;
+			} catch (Exception e) {
+				System.out.println("[Playout Pool] Depth Charge Error");
+			}
+		}
+
+		for (Worker w : this.workers) {
+			boolean late = false;
+			for (int spins = 0; w.completed != request; spins++) {
+				if (spins < SPINS) continue;
+				if (System.currentTimeMillis() > deadline) {
+					late = true;
+					break;
+				}
+				Thread.yield();
+			}
+			if (late) continue;
+			total += w.total;
+			played += w.played;
+		}
+		return (played == 0) ? -1 : total / played;
+	}
+
+	/**
+	 * Lets the workers exit. The pool cannot be used afterwards.
+	 */
+	void shutdown() {
+		for (Worker w : this.workers) {
+			w.shutdown = true;
+			LockSupport.unpark(w.thread);
+		}
+	}
+
+	int size() {
+		return this.workers.length;
+	}
+
+	/**
+	 * A depth charge on the calling thread's own machine, returning our goal,
+	 * or a negative value if the deadline cut it short.
+	 */
+	interface Charge {
+		int charge(MachineState state) throws Exception;
+	}
+
+	/////////////////////
+	// Generic Helpers //
+	/////////////////////
+
+	private static final class Worker implements Runnable {
+		final DepthCharger charger;
+		Thread thread;
+
+		/** Written by the caller before it publishes requested **/
+		MachineState state;
+		int charges;
+		long deadline;
+		volatile int requested = 0;
+
+		/** Written by the worker before it publishes completed **/
+		double total;
+		int played;
+		volatile int completed = 0;
+
+		volatile boolean parked = false;
+		volatile boolean shutdown = false;
+
+		Worker(DepthCharger charger) {
+			this.charger = charger;
+		}
+
+		@Override
+		public void run() {
+			int served = 0;
+			while (!this.shutdown) {
+				int request = this.requested;
+				if (request == served) {
+					awaitRequest(served);
+					continue;
+				}
+
+				// A late request may be overwritten by the next one while we play it
+				MachineState state = this.state;
+				int charges = this.charges;
+				long deadline = this.deadline;
+
+				double total = 0;
+				int played = 0;
+				try {
+					for (int i = 0; i < charges; i++) {
+						if (i != 0 && System.currentTimeMillis() > deadline) break;
+						this.charger.setState(state);
+						this.charger.setDeadline(deadline);
+						if (!this.charger.charge()) continue;
+						total += this.charger.getUtility();
+						played++;
+					}
+				} catch (Throwable e) {
+					// Still complete the request, or the caller waits on us until its deadline
+					System.out.println("[Playout Pool] Depth Charge Error: " + e);
+				}
+				this.total = total;
+				this.played = played;
+				this.completed = request;
+				served = request;
+			}
+		}
+
+		/**
+		 * Spins on the request counter, then parks. parked is raised before the
+		 * last check, so a request made after it is seen by the caller's unpark.
+		 */
+		private void awaitRequest(int served) {
+			for (int spins = 0; spins < SPINS; spins++) {
+				if (this.requested != served || this.shutdown) return;
+			}
+			this.parked = true;
+			if (this.requested == served && !this.shutdown) LockSupport.park(this);
+			this.parked = false;
+		}
+	}
+}
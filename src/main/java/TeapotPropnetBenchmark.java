@@ -0,0 +1,119 @@
+/**
+ * Benchmark mode for the propnet layout. For each game given on the command
+ * line, builds the net once with components in hash order and once in
+ * topological order, then runs random depth charges on each and reports
+ * transitions per second next to a locality measure of the layout.
+ *
+ * Java has no portable way to read hardware counters; for real cache miss
+ * numbers run this under `perf stat -e cache-misses,cache-references`.
+ *
+ * Usage: TeapotPropnetBenchmark [-seconds N] game.kif ...
+ */
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+
+public final class TeapotPropnetBenchmark {
+
+	/** Ints per 64 byte cache line **/
+	private static final int INTS_PER_LINE = 16;
+
+	public static void main(String[] args) throws Exception {
+		int seconds = 5;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-seconds")) {
+				seconds = Integer.parseInt(args[++i]);
+				continue;
+			}
+
+			List<Gdl> rules = Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(new File(args[i])))).getRules();
+			System.out.println("[Benchmark] " + args[i]);
+			for (boolean topological : new boolean[] { false, true }) {
+				benchmark(rules, topological, seconds);
+			}
+		}
+	}
+
+	private static void benchmark(List<Gdl> rules, boolean topological, int seconds) throws Exception {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new java.io.ByteArrayOutputStream()));
+		TeapotPropnetTopology topology;
+		TeapotBetaPropnetStateMachine machine;
+		MachineState initial;
+		try {
+			// Built afresh, so nothing left over from other runs is measured
+			topology = TeapotPropnetTopology.create(rules, topological, null);
+			machine = new TeapotBetaPropnetStateMachine(topology);
+			initial = machine.getInitialState();
+		} finally {
+			System.setOut(out);
+		}
+
+		// Warm up the JIT, then measure
+		run(machine, initial, 1000);
+		long[] counts = run(machine, initial, seconds * 1000);
+
+		System.out.println(String.format("[Benchmark] %-11s %8d transitions/s %7d charges/s | mean link distance %7.1f, cache lines per fan-out %.2f",
+				(topological) ? "topological" : "hash",
+				counts[0] * 1000 / (seconds * 1000), counts[1] * 1000 / (seconds * 1000),
+				meanLinkDistance(topology), linesPerFanout(topology)));
+	}
+
+	/**
+	 * @return { transitions, depth charges } made in millis
+	 */
+	private static long[] run(TeapotBetaPropnetStateMachine machine, MachineState initial, long millis) throws Exception {
+		long transitions = 0, charges = 0;
+		long end = System.currentTimeMillis() + millis;
+		while (System.currentTimeMillis() < end) {
+			MachineState state = initial;
+			while (!machine.isTerminal(state)) {
+				state = machine.getNextState(state, machine.getRandomJointMove(state));
+				transitions++;
+			}
+			charges++;
+		}
+		return new long[] { transitions, charges };
+	}
+
+	/**
+	 * Average |id(output) - id(component)| over every link.
+	 */
+	private static double meanLinkDistance(TeapotPropnetTopology topology) {
+		long total = 0;
+		for (int id = 0; id < topology.numComponents; id++) {
+			int start = topology.externalRepMetadata[id * 4 + 3];
+			int end = start + topology.externalRepMetadata[id * 4 + 2];
+			for (int i = start; i < end; i++) total += Math.abs(topology.externalRepOutputs[i] - id);
+		}
+		return (topology.externalRepOutputs.length == 0) ? 0 : total / (double) topology.externalRepOutputs.length;
+	}
+
+	/**
+	 * Average number of distinct cache lines of the counter array touched when
+	 * a component propagates to all of its outputs.
+	 */
+	private static double linesPerFanout(TeapotPropnetTopology topology) {
+		long total = 0;
+		int fanouts = 0;
+		Set<Integer> lines = new HashSet<>();
+		for (int id = 0; id < topology.numComponents; id++) {
+			int start = topology.externalRepMetadata[id * 4 + 3];
+			int end = start + topology.externalRepMetadata[id * 4 + 2];
+			if (start == end) continue;
+			lines.clear();
+			for (int i = start; i < end; i++) lines.add(topology.externalRepOutputs[i] / INTS_PER_LINE);
+			total += lines.size();
+			fanouts++;
+		}
+		return (fanouts == 0) ? 0 : total / (double) fanouts;
+	}
+}
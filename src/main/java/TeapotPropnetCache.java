@@ -0,0 +1,287 @@
+/**
+ * On-disk cache of optimized Propnets, so a game seen before skips the
+ * factory and the optimizer. Entries live in a directory (DEFAULT_DIR for
+ * the player), named after a hash of the build pipeline and the sanitized
+ * description: the role sentences in the order given (role order decides
+ * the order of the joint moves and goals), then all rules sorted, so a
+ * rulesheet reordered otherwise still hits. The pipeline is fingerprinted
+ * by the bytecode of the factory and the optimizer, so a change to either
+ * never serves nets they would no longer build.
+ *
+ * Binary format (big-endian):
+ *   magic, version, #roles, role names,
+ *   #components, then per component its type and (proposition) name or
+ *   (constant) value,
+ *   then per component its #outputs and their indices.
+ * Strings are an int length followed by UTF-8. Base, input, legal, goal,
+ * init and terminal propositions are recognized from their names when the
+ * PropNet is rebuilt, as they are for a freshly built net.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.Role;
+
+public final class TeapotPropnetCache {
+
+	// MARK: - Constants
+
+	/** Where the player keeps entries, relative to the working directory **/
+	static final File DEFAULT_DIR = new File("propnet-cache");
+
+	private static final int MAGIC = 0x54504e43;	// "TPNC"
+
+	/** Bump whenever the format changes **/
+	private static final int VERSION = 2;
+
+	/** Digest of the classes that build and optimize a net **/
+	private static final byte[] PIPELINE = fingerprint(OptimizingPropNetFactory.class, TeapotPropnetOptimizer.class);
+
+	private static final byte AND = 0;
+	private static final byte CONSTANT = 1;
+	private static final byte NOT = 2;
+	private static final byte OR = 3;
+	private static final byte PROPOSITION = 4;
+	private static final byte TRANSITION = 5;
+
+	private TeapotPropnetCache() {
+	}
+
+	/**
+	 * @return the PropNet cached in dir for the (sanitized) description, or
+	 * null on a miss or an unreadable entry
+	 */
+	public static PropNet load(File dir, List<Gdl> description) {
+		File file = entry(dir, description);
+		if (!file.isFile()) return null;
+
+		long start = System.currentTimeMillis();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			PropNet pn = read(buffer);
+			System.out.println("[PropNet] Loaded " + file.getName() + " from cache in "
+					+ (System.currentTimeMillis() - start) + "ms");
+			return pn;
+		} catch (Exception e) {
+			System.out.println("[PropNet] Ignoring unreadable cache entry " + file + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes pn to the cache in dir. Failures are logged and otherwise ignored.
+	 */
+	public static void store(File dir, List<Gdl> description, PropNet pn) {
+		File file = entry(dir, description);
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+
+			// Written aside and moved into place, so readers never see half an entry
+			File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				write(pn, out);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			System.out.println("[PropNet] Cached as " + file.getName());
+		} catch (IOException e) {
+			System.out.println("[PropNet] Could not cache propnet: " + e);
+		}
+	}
+
+	/////////////////////
+	// Generic Helpers //
+	/////////////////////
+
+	private static File entry(File dir, List<Gdl> description) {
+		List<String> roles = new ArrayList<>();
+		List<String> rules = new ArrayList<>();
+		for (Gdl gdl : description) {
+			if (gdl instanceof GdlRelation && ((GdlRelation) gdl).getName().getValue().equals("role")) roles.add(gdl.toString());
+			rules.add(gdl.toString());
+		}
+		Collections.sort(rules);
+
+		MessageDigest digest = sha256();
+		digest.update(ByteBuffer.allocate(4).putInt(VERSION).array());
+		digest.update(PIPELINE);
+		for (String role : roles) {
+			digest.update(role.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+		for (String rule : rules) {
+			digest.update(rule.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+
+		StringBuilder name = new StringBuilder();
+		for (byte b : digest.digest()) name.append(String.format("%02x", b));
+		return new File(dir, name.append(".pn").toString());
+	}
+
+	/**
+	 * @return a digest of the class files of classes and of the classes
+	 * nested in them, or of their names where a class file cannot be read
+	 */
+	private static byte[] fingerprint(Class<?>... classes) {
+		MessageDigest digest = sha256();
+		for (Class<?> c : classes) fingerprint(digest, c);
+		return digest.digest();
+	}
+
+	private static void fingerprint(MessageDigest digest, Class<?> c) {
+		digest.update(c.getName().getBytes(StandardCharsets.UTF_8));
+		ClassLoader loader = (c.getClassLoader() != null) ? c.getClassLoader() : ClassLoader.getSystemClassLoader();
+		try (InputStream in = loader.getResourceAsStream(c.getName().replace('.', '/') + ".class")) {
+			if (in != null) {
+				byte[] buffer = new byte[8192];
+				for (int n; (n = in.read(buffer)) > 0; ) digest.update(buffer, 0, n);
+			}
+		} catch (IOException e) {
+			// The name alone still tells the classes apart
+		}
+
+		List<Class<?>> nested = new ArrayList<>();
+		Collections.addAll(nested, c.getDeclaredClasses());
+		Collections.sort(nested, new Comparator<Class<?>>() {
+			@Override
+			public int compare(Class<?> a, Class<?> b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		for (Class<?> n : nested) fingerprint(digest, n);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);	// every JVM has SHA-256
+		}
+	}
+
+	private static void write(PropNet pn, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		out.writeInt(pn.getRoles().size());
+		for (Role r : pn.getRoles()) writeString(out, r.getName().getValue());
+
+		Map<Component, Integer> index = new HashMap<>();
+		List<Component> components = new ArrayList<>(pn.getComponents());
+		for (int i = 0; i < components.size(); i++) index.put(components.get(i), i);
+
+		out.writeInt(components.size());
+		for (Component c : components) {
+			if (c instanceof Proposition) {
+				out.writeByte(PROPOSITION);
+				writeString(out, ((Proposition) c).getName().toString());
+			} else if (c instanceof Constant) {
+				out.writeByte(CONSTANT);
+				out.writeBoolean(c.getValue());
+			} else if (c instanceof And) out.writeByte(AND);
+			else if (c instanceof Or) out.writeByte(OR);
+			else if (c instanceof Not) out.writeByte(NOT);
+			else if (c instanceof Transition) out.writeByte(TRANSITION);
+			else throw new IOException("unknown component " + c.getClass());
+		}
+
+		for (Component c : components) {
+			out.writeInt(c.getOutputs().size());
+			for (Component o : c.getOutputs()) out.writeInt(index.get(o));
+		}
+	}
+
+	private static PropNet read(ByteBuffer in) throws Exception {
+		if (in.getInt() != MAGIC || in.getInt() != VERSION) throw new IOException("bad header");
+
+		List<Role> roles = new ArrayList<>();
+		int numRoles = in.getInt();
+		for (int r = 0; r < numRoles; r++) roles.add(new Role(GdlPool.getConstant(readString(in))));
+
+		// Anonymous propositions all share a name; parse each distinct name once
+		Map<String, GdlSentence> names = new HashMap<>();
+		Component[] components = new Component[in.getInt()];
+		for (int i = 0; i < components.length; i++) {
+			byte type = in.get();
+			switch (type) {
+			case PROPOSITION: {
+				String s = readString(in);
+				GdlSentence name = names.get(s);
+				if (name == null) {
+					name = (GdlSentence) GdlFactory.create(s);
+					names.put(s, name);
+				}
+				components[i] = new Proposition(name);
+				break;
+			}
+			case CONSTANT: components[i] = new Constant(in.get() != 0); break;
+			case AND: components[i] = new And(); break;
+			case OR: components[i] = new Or(); break;
+			case NOT: components[i] = new Not(); break;
+			case TRANSITION: components[i] = new Transition(); break;
+			default: throw new IOException("bad component type " + type);
+			}
+		}
+
+		for (Component c : components) {
+			int numOutputs = in.getInt();
+			for (int k = 0; k < numOutputs; k++) {
+				Component o = components[in.getInt()];
+				c.addOutput(o);
+				o.addInput(c);
+			}
+		}
+
+		Set<Component> set = new HashSet<>(components.length * 2);
+		Collections.addAll(set, components);
+		return new PropNet(roles, set);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,316 @@
+/**
+ * Compiles a TeapotPropnetTopology into a TeapotCompiledPropnet subclass
+ * with javassist. Every component becomes one assignment, emitted in
+ * topological order, so evaluating the net is a run of straight-line code.
+ *
+ * The code is split over many small methods: HotSpot refuses to JIT a method
+ * over 8000 bytes of bytecode, and the class file format caps a method at 64k.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+public final class TeapotPropnetCompiler {
+
+	// MARK: - Constants
+
+	/** Rough bytecode budget per generated method, well under HotSpot's limit **/
+	private static final int METHOD_BUDGET = 6000;
+
+	/** Maximum operands joined in one expression of a wide And/Or **/
+	private static final int TERMS_PER_EXPRESSION = 64;
+
+	private static final int NO_COMPONENT = TeapotPropnetTopology.NO_COMPONENT;
+
+	private static final AtomicInteger classCounter = new AtomicInteger();
+
+	// MARK: - Variables
+
+	private final TeapotPropnetTopology topology;
+	private final CtClass cc;
+
+	/** Number of generated helper methods **/
+	private int numChunks = 0;
+
+	private TeapotPropnetCompiler(TeapotPropnetTopology topology, CtClass cc) {
+		this.topology = topology;
+		this.cc = cc;
+	}
+
+	/**
+	 * Generates, loads and instantiates the Propnet class for topology.
+	 */
+	public static TeapotCompiledPropnet compile(TeapotPropnetTopology topology) {
+		long start = System.currentTimeMillis();
+
+		ClassPool pool = new ClassPool(true);
+		pool.appendClassPath(new ClassClassPath(TeapotCompiledPropnet.class));
+
+		String name = "TeapotGeneratedPropnet" + classCounter.incrementAndGet();
+		try {
+			CtClass cc = pool.makeClass(name, pool.get(TeapotCompiledPropnet.class.getName()));
+			new TeapotPropnetCompiler(topology, cc).generate();
+
+			byte[] bytecode = cc.toBytecode();
+			cc.detach();
+			Class<?> generated = new Loader(TeapotCompiledPropnet.class.getClassLoader()).define(name, bytecode);
+
+			System.out.println("[Compiler] Compiled " + topology.numComponents + " components into " + name
+					+ " (" + bytecode.length + " bytes) in " + (System.currentTimeMillis() - start) + "ms");
+			return (TeapotCompiledPropnet) generated.getDeclaredConstructor().newInstance();
+		} catch (NotFoundException | CannotCompileException | java.io.IOException | ReflectiveOperationException e) {
+			throw new IllegalStateException("[Compiler] Could not compile the PropNet", e);
+		}
+	}
+
+	/////////////////////
+	// Code Generation //
+	/////////////////////
+
+	private void generate() throws CannotCompileException {
+		int numRoles = this.topology.roles.size();
+
+		this.cc.addConstructor(CtNewConstructor.make(
+				"public " + this.cc.getSimpleName() + "() { super(" + this.topology.numComponents + ", " + numRoles + "); }", this.cc));
+
+		// loadState: bases, then everything that only depends on them
+		List<String> load = new ArrayList<>();
+		List<Integer> loadCost = new ArrayList<>();
+		for (int i = 0; i < this.topology.baseIds.length; i++) {
+			load.add("v[" + this.topology.baseIds[i] + "] = s.get(" + i + ");");
+			loadCost.add(16);
+		}
+		StringBuilder body = new StringBuilder("public void loadState(java.util.BitSet s) {\n");
+		body.append(this.chunks(load, loadCost, "java.util.BitSet s", "s"));
+		body.append(this.evaluation(this.topology.stateOrder));
+		body.append("}");
+		this.addMethod(body.toString());
+
+		// computeNext: inputs from moves, everything that depends on them, then transitions
+		List<String> next = new ArrayList<>();
+		List<Integer> nextCost = new ArrayList<>();
+		for (int r = 0; r < numRoles; r++) {
+			int[] inputs = this.topology.legalInputIds[r];
+			for (int i = 0; i < inputs.length; i++) {
+				if (inputs[i] == NO_COMPONENT) continue;
+				next.add("v[" + inputs[i] + "] = moves[" + r + "] == " + i + ";");
+				nextCost.add(24);
+			}
+		}
+		List<String> write = new ArrayList<>();
+		List<Integer> writeCost = new ArrayList<>();
+		for (int i = 0; i < this.topology.transitionIds.length; i++) {
+			write.add("if (v[" + this.topology.transitionIds[i] + "]) n.set(" + i + ");");
+			writeCost.add(16);
+		}
+		body = new StringBuilder("public void computeNext(java.util.BitSet n) {\n");
+		body.append(this.chunks(next, nextCost, "", ""));
+		body.append(this.evaluation(this.topology.inputOrder));
+		body.append("n.clear();\n");
+		body.append(this.chunks(write, writeCost, "java.util.BitSet n", "n"));
+		body.append("}");
+		this.addMethod(body.toString());
+
+		// computeLegal
+		body = new StringBuilder("public int computeLegal(int role, int[] out) {\n");
+		for (int r = 0; r < numRoles; r++) {
+			int[] ids = this.topology.legalIds[r];
+			List<String> legal = new ArrayList<>();
+			List<Integer> legalCost = new ArrayList<>();
+			for (int i = 0; i < ids.length; i++) {
+				legal.add("if (" + this.term(ids[i]) + ") { out[k] = " + i + "; k++; }");
+				legalCost.add(24);
+			}
+			body.append("if (role == " + r + ") {\nint k = 0;\n");
+			body.append(this.countingChunks(legal, legalCost));
+			body.append("return k;\n}\n");
+		}
+		body.append("return 0;\n}");
+		this.addMethod(body.toString());
+
+		// computeGoal
+		body = new StringBuilder("public int computeGoal(int role) {\n");
+		for (int r = 0; r < numRoles; r++) {
+			body.append("if (role == " + r + ") {\n");
+			int[] ids = this.topology.goalIds[r];
+			for (int i = 0; i < ids.length; i++) {
+				body.append("if (" + this.term(ids[i]) + ") return " + this.topology.goalValues[r][i] + ";\n");
+			}
+			body.append("return 0;\n}\n");
+		}
+		body.append("return 0;\n}");
+		this.addMethod(body.toString());
+
+		this.addMethod("public boolean isTerminal() { return " + this.term(this.topology.terminalId) + "; }");
+
+		if (this.topology.initId != NO_COMPONENT) this.addMethod("public void setInit(boolean b) { v[" + this.topology.initId + "] = b; }");
+		else this.addMethod("public void setInit(boolean b) { }");
+	}
+
+	/**
+	 * Code that evaluates the components in order. A cyclic net is swept from
+	 * all-false until nothing changes.
+	 */
+	private String evaluation(int[] order) throws CannotCompileException {
+		List<String> statements = new ArrayList<>();
+		List<Integer> costs = new ArrayList<>();
+
+		if (!this.topology.cyclic) {
+			for (int id : order) {
+				statements.add(this.assignment(id, false));
+				costs.add(this.cost(id));
+			}
+			return this.chunks(statements, costs, "", "");
+		}
+
+		List<String> reset = new ArrayList<>();
+		List<Integer> resetCost = new ArrayList<>();
+		for (int id : order) {
+			reset.add("v[" + id + "] = false;");
+			resetCost.add(8);
+			statements.add(this.assignment(id, true));
+			costs.add(this.cost(id) + 16);
+		}
+
+		StringBuilder code = new StringBuilder(this.chunks(reset, resetCost, "", ""));
+		code.append("for (int sweep = 0; sweep < " + TeapotBitParallelPropnet.MAX_SWEEPS + "; sweep++) {\n");
+		code.append("boolean changed = false;\n");
+		for (String call : this.chunkMethods(statements, costs, "boolean", "boolean c = false;\n", "return c;\n", "", "")) {
+			code.append("if (" + call + ") changed = true;\n");
+		}
+		code.append("if (!changed) break;\n}\n");
+		return code.toString();
+	}
+
+	/**
+	 * The statement computing component id from its inputs, using t as
+	 * scratch. When tracked, the statement also sets c if the value changed.
+	 */
+	private String assignment(int id, boolean tracked) {
+		int start = this.topology.externalRepInputOffsets[id];
+		int end = this.topology.externalRepInputOffsets[id + 1];
+		int type = this.topology.externalRepMetadata[id * 4];
+
+		String expr;
+		if (type == TeapotPropnetTopology.NOT_COMP) {
+			expr = "!" + this.term(this.topology.externalRepInputs[start]);
+		} else {
+			String op = (type == TeapotPropnetTopology.AND_COMP) ? " && " : " || ";
+			if (start == end) {
+				expr = (type == TeapotPropnetTopology.AND_COMP) ? "true" : "false";
+			} else if (end - start <= TERMS_PER_EXPRESSION) {
+				expr = this.join(start, end, op);
+			} else {
+				// Wide gates are accumulated a slice at a time
+				StringBuilder sb = new StringBuilder("t = " + this.join(start, start + TERMS_PER_EXPRESSION, op) + ";\n");
+				for (int i = start + TERMS_PER_EXPRESSION; i < end; i += TERMS_PER_EXPRESSION) {
+					sb.append("t = t" + op + "(" + this.join(i, Math.min(end, i + TERMS_PER_EXPRESSION), op) + ");\n");
+				}
+				return sb.append(this.store(id, "t", tracked)).toString();
+			}
+		}
+
+		if (!tracked) return "v[" + id + "] = " + expr + ";";
+		return "t = " + expr + "; " + this.store(id, "t", tracked);
+	}
+
+	private String store(int id, String value, boolean tracked) {
+		if (!tracked) return "v[" + id + "] = " + value + ";";
+		return "if (" + value + " != v[" + id + "]) { v[" + id + "] = " + value + "; c = true; }";
+	}
+
+	private String join(int start, int end, String op) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = start; i < end; i++) {
+			if (i != start) sb.append(op);
+			sb.append(this.term(this.topology.externalRepInputs[i]));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Constants are folded in; everything else reads its value.
+	 */
+	private String term(int id) {
+		if (this.topology.externalRepMetadata[id * 4] == TeapotPropnetTopology.CONSTANT_COMP) {
+			return (this.topology.constantValues[id]) ? "true" : "false";
+		}
+		return "v[" + id + "]";
+	}
+
+	private int cost(int id) {
+		return 16 + 8 * this.topology.externalRepMetadata[id * 4 + 1];
+	}
+
+	//////////////////////
+	// Method Splitting //
+	//////////////////////
+
+	/**
+	 * Emits statements into helper methods and returns the code calling them.
+	 */
+	private String chunks(List<String> statements, List<Integer> costs, String params, String args) throws CannotCompileException {
+		StringBuilder code = new StringBuilder();
+		for (String call : this.chunkMethods(statements, costs, "void", "", "", params, args)) code.append(call).append(";\n");
+		return code.toString();
+	}
+
+	/**
+	 * Like chunks, for legal statements that append to out and count in k.
+	 */
+	private String countingChunks(List<String> statements, List<Integer> costs) throws CannotCompileException {
+		StringBuilder code = new StringBuilder();
+		for (String call : this.chunkMethods(statements, costs, "int", "", "return k;\n", "int[] out, int k", "out, k")) {
+			code.append("k = ").append(call).append(";\n");
+		}
+		return code.toString();
+	}
+
+	private List<String> chunkMethods(List<String> statements, List<Integer> costs, String returnType,
+			String prologue, String epilogue, String params, String args) throws CannotCompileException {
+		List<String> calls = new ArrayList<>();
+		int i = 0;
+		while (i < statements.size()) {
+			String name = "c" + this.numChunks++;
+			StringBuilder body = new StringBuilder("private " + returnType + " " + name + "(" + params + ") {\n");
+			body.append("boolean[] v = this.v;\nboolean t;\n").append(prologue);
+			int budget = 0;
+			do {
+				body.append(statements.get(i)).append('\n');
+				budget += costs.get(i);
+				i++;
+			} while (i < statements.size() && budget + costs.get(i) < METHOD_BUDGET);
+			body.append(epilogue).append("}");
+
+			this.addMethod(body.toString());
+			calls.add(name + "(" + args + ")");
+		}
+		return calls;
+	}
+
+	private void addMethod(String source) throws CannotCompileException {
+		this.cc.addMethod(CtNewMethod.make(source, this.cc));
+	}
+
+	/**
+	 * Defines the generated classes next to TeapotCompiledPropnet.
+	 */
+	private static final class Loader extends ClassLoader {
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytecode) {
+			return this.defineClass(name, bytecode, 0, bytecode.length);
+		}
+	}
+}
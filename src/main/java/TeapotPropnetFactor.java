@@ -0,0 +1,150 @@
+/**
+ * An independent subgame of a Propnet: a group of base propositions and
+ * moves that never influence the bases and moves of any other group. Only
+ * goal and terminal may depend on several factors.
+ *
+ * Moves that touch no base at all (noop, typically) belong to no factor and
+ * are shared by all of them.
+ */
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class TeapotPropnetFactor {
+
+	private static final int NO_COMPONENT = TeapotPropnetTopology.NO_COMPONENT;
+
+	// MARK: - Variables
+
+	/** Positions in the state of this factor's bases **/
+	final BitSet bases;
+
+	/** Indices into legalIds of this factor's moves, indexed by role **/
+	final BitSet[] legals;
+
+	private TeapotPropnetFactor(int numRoles) {
+		this.bases = new BitSet();
+		this.legals = new BitSet[numRoles];
+		for (int r = 0; r < numRoles; r++) this.legals[r] = new BitSet();
+	}
+
+	/**
+	 * Splits the net into factors. Two components are in the same factor if
+	 * they are connected through components that feed a transition or a legal;
+	 * the parts of the net that only compute goal and terminal do not join
+	 * factors, and neither do init and the constants.
+	 *
+	 * @return the factors, a single one if the game does not factor
+	 */
+	public static List<TeapotPropnetFactor> analyze(TeapotPropnetTopology topology) {
+		int n = topology.numComponents;
+
+		// Which components can reach a transition or a legal?
+		boolean[] dynamic = new boolean[n];
+		int[] stack = new int[n];
+		int top = 0;
+		for (int id : topology.transitionIds) if (!dynamic[id]) { dynamic[id] = true; stack[top++] = id; }
+		for (int[] ids : topology.legalIds) {
+			for (int id : ids) if (!dynamic[id]) { dynamic[id] = true; stack[top++] = id; }
+		}
+		while (top > 0) {
+			int id = stack[--top];
+			for (int i = topology.externalRepInputOffsets[id]; i < topology.externalRepInputOffsets[id + 1]; i++) {
+				int in = topology.externalRepInputs[i];
+				if (dynamic[in]) continue;
+				dynamic[in] = true;
+				stack[top++] = in;
+			}
+		}
+
+		// Union-Find over the dynamic part
+		int[] parent = new int[n];
+		for (int id = 0; id < n; id++) parent[id] = id;
+		for (int id = 0; id < n; id++) {
+			if (!joins(topology, dynamic, id)) continue;
+			for (int i = topology.externalRepInputOffsets[id]; i < topology.externalRepInputOffsets[id + 1]; i++) {
+				int in = topology.externalRepInputs[i];
+				if (joins(topology, dynamic, in)) union(parent, id, in);
+			}
+		}
+		for (int i = 0; i < topology.baseIds.length; i++) union(parent, topology.baseIds[i], topology.transitionIds[i]);
+		for (int r = 0; r < topology.legalIds.length; r++) {
+			for (int i = 0; i < topology.legalIds[r].length; i++) {
+				if (topology.legalInputIds[r][i] != NO_COMPONENT) union(parent, topology.legalIds[r][i], topology.legalInputIds[r][i]);
+			}
+		}
+
+		// Every group with a base is a factor
+		int numRoles = topology.roles.size();
+		Map<Integer, TeapotPropnetFactor> factors = new HashMap<>();
+		List<TeapotPropnetFactor> ordered = new ArrayList<>();
+		for (int i = 0; i < topology.baseIds.length; i++) {
+			int root = find(parent, topology.baseIds[i]);
+			TeapotPropnetFactor f = factors.get(root);
+			if (f == null) {
+				f = new TeapotPropnetFactor(numRoles);
+				factors.put(root, f);
+				ordered.add(f);
+			}
+			f.bases.set(i);
+		}
+		for (int r = 0; r < numRoles; r++) {
+			for (int i = 0; i < topology.legalIds[r].length; i++) {
+				TeapotPropnetFactor f = factors.get(find(parent, topology.legalIds[r][i]));
+				if (f != null) f.legals[r].set(i);
+			}
+		}
+
+		// Factors nobody can move in are just static parts of the state
+		List<TeapotPropnetFactor> result = new ArrayList<>();
+		for (TeapotPropnetFactor f : ordered) {
+			boolean hasMoves = false;
+			for (BitSet b : f.legals) hasMoves |= !b.isEmpty();
+			if (hasMoves) result.add(f);
+		}
+
+		System.out.println("[PropNet] Found " + result.size() + " Factor(s)");
+		return result;
+	}
+
+	/////////////
+	// Returns //
+	/////////////
+
+	/**
+	 * @return true if legal index i of role r belongs to this factor
+	 */
+	public boolean hasLegal(int r, int i) {
+		return this.legals[r].get(i);
+	}
+
+	public int getNumBases() {
+		return this.bases.cardinality();
+	}
+
+	/////////////////////
+	// Generic Helpers //
+	/////////////////////
+
+	private static boolean joins(TeapotPropnetTopology topology, boolean[] dynamic, int id) {
+		if (!dynamic[id] || id == topology.initId) return false;
+		return topology.externalRepMetadata[id * 4] != TeapotPropnetTopology.CONSTANT_COMP;
+	}
+
+	private static int find(int[] parent, int id) {
+		while (parent[id] != id) {
+			parent[id] = parent[parent[id]];
+			id = parent[id];
+		}
+		return id;
+	}
+
+	private static void union(int[] parent, int a, int b) {
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a != b) parent[a] = b;
+	}
+}
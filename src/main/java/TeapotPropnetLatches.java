@@ -0,0 +1,179 @@
+/**
+ * Latch analysis of a Propnet. A base proposition is a positive latch if
+ * once true it stays true whatever is played, and a negative latch if once
+ * false it stays false. A latch that forces a goal proposition decides that
+ * role's outcome as soon as it is set, long before the game is terminal.
+ *
+ * Proofs use three-valued (true/false/unknown) propagation: the latch is
+ * fixed, every other base and every input is unknown, and whatever still
+ * comes out true or false holds in every state where the latch does.
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+public final class TeapotPropnetLatches {
+
+	// MARK: - Constants
+	private static final byte UNKNOWN = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+
+	// MARK: - Variables
+
+	/** Positions in the state of the positive and negative latches **/
+	final BitSet positiveLatches = new BitSet();
+	final BitSet negativeLatches = new BitSet();
+
+	/**
+	 * Goals decided by a single latch, indexed by role: while the base at
+	 * goalLatchBases[r][i] has value goalLatchPolarity[r][i], the goal of
+	 * role r is goalLatchValues[r][i].
+	 */
+	final int[][] goalLatchBases;
+	final boolean[][] goalLatchPolarity;
+	final int[][] goalLatchValues;
+
+	private final TeapotPropnetTopology topology;
+
+	/** Scratch for propagation **/
+	private final byte[] values;
+	private final int[] order;
+
+	private TeapotPropnetLatches(TeapotPropnetTopology topology) {
+		this.topology = topology;
+		this.values = new byte[topology.numComponents];
+		this.order = new int[topology.stateOrder.length + topology.inputOrder.length];
+		System.arraycopy(topology.stateOrder, 0, this.order, 0, topology.stateOrder.length);
+		System.arraycopy(topology.inputOrder, 0, this.order, topology.stateOrder.length, topology.inputOrder.length);
+
+		int numRoles = topology.roles.size();
+		this.goalLatchBases = new int[numRoles][0];
+		this.goalLatchPolarity = new boolean[numRoles][0];
+		this.goalLatchValues = new int[numRoles][0];
+	}
+
+	/**
+	 * Finds the latches of the net and the goals they decide. Nets with a
+	 * combinational cycle are not analyzed (nothing is reported as a latch).
+	 */
+	public static TeapotPropnetLatches analyze(TeapotPropnetTopology topology) {
+		TeapotPropnetLatches latches = new TeapotPropnetLatches(topology);
+		if (topology.cyclic) {
+			System.out.println("[Latches] Skipping Cyclic Net");
+			return latches;
+		}
+
+		int numRoles = topology.roles.size();
+		int[][] bases = new int[numRoles][topology.baseIds.length * 2];
+		boolean[][] polarity = new boolean[numRoles][topology.baseIds.length * 2];
+		int[][] goals = new int[numRoles][topology.baseIds.length * 2];
+		int[] counts = new int[numRoles];
+
+		for (int i = 0; i < topology.baseIds.length; i++) {
+			for (boolean val : new boolean[] { true, false }) {
+				latches.propagate(i, val);
+				if (latches.values[topology.transitionIds[i]] != (val ? TRUE : FALSE)) continue;
+
+				if (val) latches.positiveLatches.set(i);
+				else latches.negativeLatches.set(i);
+
+				for (int r = 0; r < numRoles; r++) {
+					for (int g = 0; g < topology.goalIds[r].length; g++) {
+						if (latches.values[topology.goalIds[r][g]] != TRUE) continue;
+						bases[r][counts[r]] = i;
+						polarity[r][counts[r]] = val;
+						goals[r][counts[r]] = topology.goalValues[r][g];
+						counts[r]++;
+					}
+				}
+			}
+		}
+
+		for (int r = 0; r < numRoles; r++) {
+			latches.goalLatchBases[r] = Arrays.copyOf(bases[r], counts[r]);
+			latches.goalLatchPolarity[r] = Arrays.copyOf(polarity[r], counts[r]);
+			latches.goalLatchValues[r] = Arrays.copyOf(goals[r], counts[r]);
+		}
+
+		System.out.println("[Latches] " + latches.positiveLatches.cardinality() + " Positive, "
+				+ latches.negativeLatches.cardinality() + " Negative, " + Arrays.toString(counts) + " Goal Latches");
+		return latches;
+	}
+
+	/**
+	 * @return the goal of role r fixed by a latch held in state, or -1 if
+	 * the outcome is still open
+	 */
+	public int decidedGoal(BitSet state, int r) {
+		int[] bases = this.goalLatchBases[r];
+		for (int i = 0; i < bases.length; i++) {
+			if (state.get(bases[i]) == this.goalLatchPolarity[r][i]) return this.goalLatchValues[r][i];
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if some goal of role r can be decided by a latch
+	 */
+	public boolean hasGoalLatches(int r) {
+		return this.goalLatchBases[r].length > 0;
+	}
+
+	public boolean isPositiveLatch(int base) {
+		return this.positiveLatches.get(base);
+	}
+
+	public boolean isNegativeLatch(int base) {
+		return this.negativeLatches.get(base);
+	}
+
+	/////////////////////
+	// PropNet Helpers //
+	/////////////////////
+
+	/**
+	 * Three-valued evaluation of the whole net with only base i known.
+	 */
+	private void propagate(int i, boolean val) {
+		Arrays.fill(this.values, UNKNOWN);
+		for (int id = 0; id < this.topology.numComponents; id++) {
+			if (this.topology.externalRepMetadata[id * 4] != TeapotPropnetTopology.CONSTANT_COMP) continue;
+			this.values[id] = (this.topology.constantValues[id]) ? TRUE : FALSE;
+		}
+		if (this.topology.initId != TeapotPropnetTopology.NO_COMPONENT) this.values[this.topology.initId] = FALSE;
+		this.values[this.topology.baseIds[i]] = (val) ? TRUE : FALSE;
+
+		for (int id : this.order) this.values[id] = this.compute(id);
+	}
+
+	private byte compute(int id) {
+		int start = this.topology.externalRepInputOffsets[id];
+		int end = this.topology.externalRepInputOffsets[id + 1];
+
+		switch (this.topology.externalRepMetadata[id * 4]) {
+		case TeapotPropnetTopology.AND_COMP: {
+			byte result = TRUE;
+			for (int k = start; k < end; k++) {
+				byte in = this.values[this.topology.externalRepInputs[k]];
+				if (in == FALSE) return FALSE;
+				if (in == UNKNOWN) result = UNKNOWN;
+			}
+			return result;
+		}
+		case TeapotPropnetTopology.NOT_COMP: {
+			byte in = this.values[this.topology.externalRepInputs[start]];
+			return (in == UNKNOWN) ? UNKNOWN : (in == TRUE) ? FALSE : TRUE;
+		}
+		default: { // OR, TRANSITION, PROPOSITION (views)
+			byte result = FALSE;
+			for (int k = start; k < end; k++) {
+				byte in = this.values[this.topology.externalRepInputs[k]];
+				if (in == TRUE) return TRUE;
+				if (in == UNKNOWN) result = UNKNOWN;
+			}
+			return result;
+		}
+		}
+	}
+}
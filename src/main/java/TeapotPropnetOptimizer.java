@@ -0,0 +1,286 @@
+/**
+ * A pipeline of logical optimizations over a PropNet. Each pass rewrites
+ * the net in place without changing the value of any base, input, legal,
+ * goal, init or terminal proposition, and the pipeline is rerun until no
+ * pass finds anything left to do.
+ *
+ * Only anonymous gates and view propositions are ever removed.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+
+public final class TeapotPropnetOptimizer {
+
+	/**
+	 * A single rewrite of the net.
+	 */
+	public interface Pass {
+		String getName();
+
+		/**
+		 * @return the number of rewrites made, 0 if the net was left alone
+		 */
+		int apply(PropNet pn);
+	}
+
+	// MARK: - Constants
+
+	/** Safety net against passes undoing each other **/
+	private static final int MAX_ROUNDS = 16;
+
+	// MARK: - Variables
+
+	private final List<Pass> passes = new ArrayList<>();
+
+	public TeapotPropnetOptimizer add(Pass pass) {
+		this.passes.add(pass);
+		return this;
+	}
+
+	/**
+	 * The default pipeline.
+	 */
+	public static TeapotPropnetOptimizer standard() {
+		return new TeapotPropnetOptimizer()
+				.add(new ViewPropositions())
+				.add(new SingleInputGates())
+				.add(new DoubleNegation())
+				.add(new DeMorgan())
+				.add(new CommonSubexpressions());
+	}
+
+	/**
+	 * Runs every pass in turn until the net stops changing, reporting the
+	 * size of the net after each pass that changed it.
+	 */
+	public void run(PropNet pn) {
+		int startSize = pn.getSize(), startLinks = pn.getNumLinks();
+		System.out.println("[Optimizer] Start: " + startSize + " components, " + startLinks + " links");
+
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			int changes = 0;
+			for (Pass pass : this.passes) {
+				int n = pass.apply(pn);
+				if (n == 0) continue;
+				changes += n;
+				System.out.println("[Optimizer] " + pass.getName() + ": " + n + " rewrites, "
+						+ pn.getSize() + " components, " + pn.getNumLinks() + " links");
+			}
+			if (changes == 0) break;
+		}
+
+		System.out.println("[Optimizer] Done: " + startSize + " -> " + pn.getSize() + " components, "
+				+ startLinks + " -> " + pn.getNumLinks() + " links");
+	}
+
+	////////////
+	// Passes //
+	////////////
+
+	/**
+	 * Removes view propositions with a single input, wiring the input
+	 * straight to the outputs.
+	 */
+	static final class ViewPropositions implements Pass {
+		@Override
+		public String getName() {
+			return "View Propositions";
+		}
+
+		@Override
+		public int apply(PropNet pn) {
+			Set<Component> keep = TeapotPropnetOptimizer.interfacePropositions(pn);
+			List<Proposition> toRemove = new ArrayList<>();
+			for (Proposition p : pn.getPropositions()) {
+				if (keep.contains(p) || p.getInputs().size() != 1) continue;
+				toRemove.add(p);
+			}
+			for (Proposition p : toRemove) TeapotPropnetOptimizer.bypass(pn, p, p.getSingleInput());
+			return toRemove.size();
+		}
+	}
+
+	/**
+	 * Replaces And and Or gates with a single input by that input.
+	 */
+	static final class SingleInputGates implements Pass {
+		@Override
+		public String getName() {
+			return "Single-Input Gates";
+		}
+
+		@Override
+		public int apply(PropNet pn) {
+			List<Component> toRemove = new ArrayList<>();
+			for (Component c : pn.getComponents()) {
+				if ((c instanceof And || c instanceof Or) && c.getInputs().size() == 1) toRemove.add(c);
+			}
+			for (Component c : toRemove) TeapotPropnetOptimizer.bypass(pn, c, c.getSingleInput());
+			return toRemove.size();
+		}
+	}
+
+	/**
+	 * Replaces Not(Not(x)) by x.
+	 */
+	static final class DoubleNegation implements Pass {
+		@Override
+		public String getName() {
+			return "Double Negation";
+		}
+
+		@Override
+		public int apply(PropNet pn) {
+			int rewrites = 0;
+			List<Component> outer = new ArrayList<>();
+			for (Component c : pn.getComponents()) {
+				if (TeapotPropnetOptimizer.isNot(c) && TeapotPropnetOptimizer.isNot(c.getSingleInput())) outer.add(c);
+			}
+			for (Component n : outer) {
+				// An earlier rewrite may already have taken this one apart
+				if (!pn.getComponents().contains(n) || !TeapotPropnetOptimizer.isNot(n.getSingleInput())) continue;
+				Component inner = n.getSingleInput();
+				TeapotPropnetOptimizer.bypass(pn, n, inner.getSingleInput());
+				if (inner.getOutputs().isEmpty()) pn.removeComponent(inner);
+				rewrites++;
+			}
+			return rewrites;
+		}
+	}
+
+	/**
+	 * Rewrites And(Not a, Not b, ...) as Not(Or(a, b, ...)), and the same for
+	 * Or, when the inner Nots feed nothing else: k + 1 gates become 2.
+	 */
+	static final class DeMorgan implements Pass {
+		@Override
+		public String getName() {
+			return "De Morgan";
+		}
+
+		@Override
+		public int apply(PropNet pn) {
+			List<Component> candidates = new ArrayList<>();
+			for (Component c : pn.getComponents()) {
+				if (!(c instanceof And || c instanceof Or) || c.getInputs().size() < 2) continue;
+				boolean allNots = true;
+				for (Component in : c.getInputs()) {
+					if (!TeapotPropnetOptimizer.isNot(in) || in.getOutputs().size() != 1) {
+						allNots = false;
+						break;
+					}
+				}
+				if (allNots) candidates.add(c);
+			}
+
+			for (Component g : candidates) {
+				Component dual = (g instanceof And) ? new Or() : new And();
+				Component not = new Not();
+				pn.addComponent(dual);
+				pn.addComponent(not);
+
+				for (Component inner : new ArrayList<>(g.getInputs())) {
+					Component x = inner.getSingleInput();
+					TeapotPropnetOptimizer.link(x, dual);
+					pn.removeComponent(inner);
+				}
+				TeapotPropnetOptimizer.link(dual, not);
+				TeapotPropnetOptimizer.bypass(pn, g, not);
+			}
+			return candidates.size();
+		}
+	}
+
+	/**
+	 * Merges And, Or and Not gates of the same type with the same inputs.
+	 */
+	static final class CommonSubexpressions implements Pass {
+		@Override
+		public String getName() {
+			return "Common Subexpressions";
+		}
+
+		@Override
+		public int apply(PropNet pn) {
+			Map<Set<Component>, Component> ands = new HashMap<>();
+			Map<Set<Component>, Component> ors = new HashMap<>();
+			Map<Set<Component>, Component> nots = new HashMap<>();
+			Map<Component, Component> duplicates = new HashMap<>();
+
+			for (Component c : pn.getComponents()) {
+				Map<Set<Component>, Component> seen;
+				if (c instanceof And) seen = ands;
+				else if (c instanceof Or) seen = ors;
+				else if (c instanceof Not) seen = nots;
+				else continue;
+
+				Set<Component> key = new HashSet<>(c.getInputs());
+				Component original = seen.get(key);
+				if (original == null) seen.put(key, c);
+				else duplicates.put(c, original);
+			}
+
+			// Inputs only change for the outputs of a duplicate, which are
+			// themselves re-examined on the next round
+			for (Map.Entry<Component, Component> e : duplicates.entrySet()) {
+				TeapotPropnetOptimizer.bypass(pn, e.getKey(), e.getValue());
+			}
+			return duplicates.size();
+		}
+	}
+
+	/////////////////////
+	// Generic Helpers //
+	/////////////////////
+
+	/**
+	 * Propositions the rest of the player refers to, which must survive.
+	 */
+	private static Set<Component> interfacePropositions(PropNet pn) {
+		Set<Component> keep = new HashSet<>();
+		keep.addAll(pn.getBasePropositions().values());
+		keep.addAll(pn.getInputPropositions().values());
+		for (Set<Proposition> props : pn.getLegalPropositions().values()) keep.addAll(props);
+		for (Set<Proposition> props : pn.getGoalPropositions().values()) keep.addAll(props);
+		keep.addAll(pn.getLegalInputMap().keySet());
+		if (pn.getInitProposition() != null) keep.add(pn.getInitProposition());
+		if (pn.getTerminalProposition() != null) keep.add(pn.getTerminalProposition());
+		return keep;
+	}
+
+	/**
+	 * Removes c from the net, feeding its outputs from replacement instead.
+	 */
+	private static void bypass(PropNet pn, Component c, Component replacement) {
+		for (Component out : new ArrayList<>(c.getOutputs())) {
+			out.removeInput(c);
+			TeapotPropnetOptimizer.link(replacement, out);
+		}
+		c.removeAllOutputs();
+		pn.removeComponent(c);
+	}
+
+	/**
+	 * True for a well-formed Not (exactly one input).
+	 */
+	private static boolean isNot(Component c) {
+		return c instanceof Not && c.getInputs().size() == 1;
+	}
+
+	private static void link(Component from, Component to) {
+		from.addOutput(to);
+		to.addInput(from);
+	}
+}
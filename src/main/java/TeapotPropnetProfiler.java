@@ -0,0 +1,345 @@
+/**
+ * Counts, per component of a TeapotBetaPropnetStateMachine, how often
+ * propagation visits it (its counter changes) and how often its value
+ * flips, and attributes the counts to sentence forms and the GDL rules
+ * defining them. Gates have no name of their own, so they are attributed to
+ * the named proposition reached through their first outputs.
+ *
+ * Each machine counts into its own profiler, so threads never share
+ * counters; machines made by createInstance fork their parent's profiler,
+ * and reports sum over every profiler forked from the same root.
+ *
+ * Profiling is switched on for the whole JVM with -Dteapot.profile=true.
+ * The machine tests the static final ENABLED, which the JIT folds away when
+ * it is off, so an unprofiled machine pays nothing.
+ *
+ * Usage: java -Dteapot.profile=true TeapotPropnetProfiler [-seconds N] [-top N] [-dot file] game.kif
+ */
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.MachineState;
+
+public final class TeapotPropnetProfiler {
+
+	// MARK: - Constants
+
+	/** Read once at class load, see the class comment **/
+	public static final boolean ENABLED = Boolean.getBoolean("teapot.profile");
+
+	/** Sentences whose form is really that of their last argument **/
+	private static final Set<String> WRAPPERS = new HashSet<>(Arrays.asList("true", "next", "init", "legal", "does"));
+
+	private static final String UNNAMED = "(unnamed)";
+
+	// MARK: - Variables
+
+	private final TeapotPropnetTopology topology;
+
+	/** Counters, indexed by componentId (written by the machine) **/
+	final long[] visits;
+	final long[] flips;
+
+	/** This profiler and every one forked from the same root **/
+	private final List<TeapotPropnetProfiler> group;
+
+	/** Components and their sentence forms, indexed by componentId, built on first report **/
+	private Component[] components = null;
+	private String[] forms = null;
+
+	/** Rules defining each sentence form **/
+	private Map<String, List<GdlRule>> rules = null;
+
+	TeapotPropnetProfiler(TeapotPropnetTopology topology) {
+		this(topology, new CopyOnWriteArrayList<TeapotPropnetProfiler>());
+	}
+
+	private TeapotPropnetProfiler(TeapotPropnetTopology topology, List<TeapotPropnetProfiler> group) {
+		this.topology = topology;
+		this.visits = new long[topology.numComponents];
+		this.flips = new long[topology.numComponents];
+		this.group = group;
+		this.group.add(this);
+	}
+
+	/**
+	 * @return a new, zeroed profiler for another machine over the same
+	 * topology, whose counts go into this one's reports
+	 */
+	TeapotPropnetProfiler fork() {
+		return new TeapotPropnetProfiler(this.topology, this.group);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (!ENABLED) {
+			System.err.println("[Profiler] Run with -Dteapot.profile=true");
+			return;
+		}
+
+		int seconds = 5, top = 20;
+		String dot = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-seconds")) seconds = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-top")) top = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-dot")) dot = args[++i];
+			else profile(args[i], seconds, top, dot);
+		}
+	}
+
+	private static void profile(String game, int seconds, int top, String dot) throws Exception {
+		List<Gdl> rules = Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(new File(game)))).getRules();
+		TeapotBetaPropnetStateMachine machine = new TeapotBetaPropnetStateMachine();
+		machine.initialize(rules);
+
+		MachineState initial = machine.getInitialState();
+		int[] goals = new int[machine.getRoles().size()];
+		long charges = 0;
+		long end = System.currentTimeMillis() + seconds * 1000L;
+		while (System.currentTimeMillis() < end) {
+			machine.performFusedDepthCharge(initial, goals, Long.MAX_VALUE);
+			charges++;
+		}
+
+		System.out.println("[Profiler] " + game + ": " + charges + " depth charges");
+		machine.getProfiler().report(top);
+		if (dot != null) machine.getProfiler().renderHeatToFile(dot);
+	}
+
+	public void reset() {
+		Arrays.fill(this.visits, 0);
+		Arrays.fill(this.flips, 0);
+	}
+
+	/**
+	 * Prints the top hottest components with the rule they came from, then
+	 * the top sentence forms by total visits, summed over the group.
+	 */
+	public void report(int top) {
+		this.index();
+		PrintStream out = System.out;
+		final long[] visits = new long[this.visits.length];
+		long[] flips = new long[this.flips.length];
+		this.sum(visits, flips);
+
+		long totalVisits = 0, totalFlips = 0;
+		for (int id = 0; id < visits.length; id++) {
+			totalVisits += visits[id];
+			totalFlips += flips[id];
+		}
+		out.println("[Profiler] " + totalVisits + " visits, " + totalFlips + " flips over " + visits.length
+				+ " components on " + this.group.size() + " machines");
+
+		List<Integer> ids = new ArrayList<>();
+		for (int id = 0; id < visits.length; id++) ids.add(id);
+		Collections.sort(ids, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(visits[b], visits[a]);
+			}
+		});
+
+		out.println("[Profiler] Hottest Components:");
+		for (int i = 0; i < Math.min(top, ids.size()); i++) {
+			int id = ids.get(i);
+			if (visits[id] == 0 && flips[id] == 0) break;
+			out.println(String.format("\t#%-4d %-11s visits %12d (%5.2f%%) flips %12d  %s", id, typeOf(this.components[id]),
+					visits[id], percent(visits[id], totalVisits), flips[id], this.forms[id]));
+
+			List<GdlRule> defining = this.rules.get(this.forms[id]);
+			if (defining != null && !defining.isEmpty()) {
+				out.println("\t\t" + defining.get(0) + ((defining.size() > 1) ? " (+" + (defining.size() - 1) + " more)" : ""));
+			}
+		}
+
+		final Map<String, long[]> byForm = new HashMap<>();
+		for (int id = 0; id < visits.length; id++) {
+			long[] sums = byForm.get(this.forms[id]);
+			if (sums == null) {
+				sums = new long[3];
+				byForm.put(this.forms[id], sums);
+			}
+			sums[0] += visits[id];
+			sums[1] += flips[id];
+			sums[2]++;
+		}
+		List<String> forms = new ArrayList<>(byForm.keySet());
+		Collections.sort(forms, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Long.compare(byForm.get(b)[0], byForm.get(a)[0]);
+			}
+		});
+
+		out.println("[Profiler] Hottest Sentence Forms:");
+		for (int i = 0; i < Math.min(top, forms.size()); i++) {
+			long[] sums = byForm.get(forms.get(i));
+			out.println(String.format("\t%-32s visits %12d (%5.2f%%) flips %12d  %d components", forms.get(i),
+					sums[0], percent(sums[0], totalVisits), sums[1], sums[2]));
+		}
+	}
+
+	/**
+	 * Writes the net in .dot format (see PropNet.renderToFile), each
+	 * component filled from white (never visited) to red (most visited) on a
+	 * log scale. Counts are summed over the group.
+	 */
+	public void renderHeatToFile(String filename) {
+		this.index();
+		long[] visits = new long[this.visits.length];
+		this.sum(visits, new long[this.flips.length]);
+
+		long max = 0;
+		for (long v : visits) max = Math.max(max, v);
+		double scale = Math.log1p(max);
+
+		Map<Component, String> colors = new HashMap<>();
+		for (int id = 0; id < this.components.length; id++) {
+			double heat = (scale == 0) ? 0 : Math.log1p(visits[id]) / scale;
+			colors.put(this.components[id], String.format("0.000 %.3f 1.000", heat));
+		}
+		this.topology.propnet.renderToFile(filename, colors);
+		System.out.println("[Profiler] Wrote heat map to " + filename);
+	}
+
+	/////////////////////
+	// Generic Helpers //
+	/////////////////////
+
+	/**
+	 * Adds up the counters of every profiler in the group. Machines still
+	 * running may be mid-update; a profile does not need to be exact.
+	 */
+	private void sum(long[] visits, long[] flips) {
+		for (TeapotPropnetProfiler p : this.group) {
+			for (int id = 0; id < visits.length; id++) {
+				visits[id] += p.visits[id];
+				flips[id] += p.flips[id];
+			}
+		}
+	}
+
+	/**
+	 * Maps componentIds back to components, their sentence forms and rules.
+	 */
+	private void index() {
+		if (this.components != null) return;
+
+		this.components = new Component[this.visits.length];
+		for (Component c : this.topology.propnet.getComponents()) this.components[c.componentId] = c;
+
+		this.forms = new String[this.components.length];
+		this.findForms();
+
+		this.rules = new HashMap<>();
+		for (Gdl gdl : this.topology.description) {
+			if (!(gdl instanceof GdlRule)) continue;
+			String form = formOf(((GdlRule) gdl).getHead());
+			List<GdlRule> list = this.rules.get(form);
+			if (list == null) {
+				list = new ArrayList<>();
+				this.rules.put(form, list);
+			}
+			list.add((GdlRule) gdl);
+		}
+	}
+
+	/**
+	 * Gives every component the form of its own name, or else that of its
+	 * first output, so gates inherit the form of the proposition they feed.
+	 * Each chain of first outputs is walked once, up to a component whose
+	 * form is already known, and resolved back to front; components whose
+	 * chain ends without a name (or loops) are UNNAMED.
+	 */
+	private void findForms() {
+		int[] path = new int[this.components.length];
+		for (int start = 0; start < this.forms.length; start++) {
+			int length = 0;
+			String form = null;
+			for (int id = start; form == null; ) {
+				if (this.forms[id] != null) {
+					form = this.forms[id];
+					break;
+				}
+				form = nameOf(this.components[id]);
+				if (form != null) {
+					this.forms[id] = form;
+					break;
+				}
+
+				this.forms[id] = UNNAMED;	// until resolved, which also stops loops
+				path[length++] = id;
+				int numOutputs = this.topology.externalRepMetadata[id * 4 + 2];
+				if (numOutputs == 0) form = UNNAMED;
+				else id = this.topology.externalRepOutputs[this.topology.externalRepMetadata[id * 4 + 3]];
+			}
+			while (length > 0) this.forms[path[--length]] = form;
+		}
+	}
+
+	/**
+	 * @return the form of a named proposition, else null
+	 */
+	private static String nameOf(Component c) {
+		if (!(c instanceof Proposition)) return null;
+		GdlSentence name = ((Proposition) c).getName();
+		if (name.getName().getValue().equals("anon")) return null;
+		return formOf(name);
+	}
+
+	/**
+	 * e.g. cell/3, or true(cell/3) for (true (cell 1 1 b)). Next rules feed
+	 * the bases, so (next ...) shares the form of (true ...).
+	 */
+	private static String formOf(GdlSentence s) {
+		String name = s.getName().getValue();
+		if (!WRAPPERS.contains(name) || s.arity() == 0) return name + "/" + s.arity();
+
+		if (name.equals("next")) name = "true";
+		return name + "(" + formOf(s.get(s.arity() - 1)) + ")";
+	}
+
+	private static String formOf(GdlTerm t) {
+		if (t instanceof GdlFunction) return ((GdlFunction) t).getName().getValue() + "/" + ((GdlFunction) t).arity();
+		if (t instanceof GdlConstant) return ((GdlConstant) t).getValue();
+		return "?";
+	}
+
+	private static String typeOf(Component c) {
+		if (c instanceof And) return "AND";
+		if (c instanceof Or) return "OR";
+		if (c instanceof Not) return "NOT";
+		if (c instanceof Transition) return "TRANSITION";
+		if (c instanceof Constant) return "CONSTANT";
+		return "PROPOSITION";
+	}
+
+	private static double percent(long part, long total) {
+		return (total == 0) ? 0 : 100.0 * part / total;
+	}
+}
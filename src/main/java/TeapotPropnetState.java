@@ -0,0 +1,56 @@
+/**
+ * The MachineState produced by the Teapot propnet machines: the base bits
+ * together with their 64-bit Zobrist hash (see TeapotPropnetTopology), which
+ * the machine computes while writing the bits. Hashing is O(1), and two
+ * different states almost always compare unequal on the hash alone.
+ *
+ * In-place buffers (TeapotIndexedStateMachine.advanceInPlace) rehash as
+ * their contents change, so only snapshots (clone) belong in a hash table.
+ * Equal only to another TeapotPropnetState with the same bits: plain
+ * MachineStates hash differently, so they never compare equal to one (the
+ * prover states from before a hot-swap stay distinct from propnet states).
+ */
+
+import java.util.BitSet;
+
+import org.ggp.base.util.statemachine.MachineState;
+
+public final class TeapotPropnetState extends MachineState {
+
+	/** Zobrist hash of the bits **/
+	long hash;
+
+	TeapotPropnetState(BitSet bits, long hash) {
+		super(bits);
+		this.hash = hash;
+	}
+
+	public long getHash() {
+		return this.hash;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (this.hash ^ (this.hash >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (o instanceof TeapotPropnetState) {
+			TeapotPropnetState s = (TeapotPropnetState) o;
+			return s.hash == this.hash && s.getPropContents().equals(this.getPropContents());
+		}
+		return false;
+	}
+
+	@Override
+	public TeapotPropnetState clone() {
+		return new TeapotPropnetState((BitSet) this.getPropContents().clone(), this.hash);
+	}
+
+	@Override
+	public String toString() {
+		return this.getPropContents().toString();
+	}
+}
@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -52,6 +53,10 @@ public class TeapotPropnetStateMachine extends StateMachine {
 	/** All Base Props **/
 	private Proposition[] basePropositions;
 
+	/** Base values currently loaded into the net, and scratch for the bases to flip **/
+	private BitSet loadedBases = new BitSet();
+	private BitSet flippedBases = new BitSet();
+
 	/** All Input Props **/
 	private Proposition[] inputPropositions;
 
@@ -155,7 +160,6 @@ public class TeapotPropnetStateMachine extends StateMachine {
 	@Override
 	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
 		this.markbases(state);
-		for (Component c : this.basePropositions) forwardprop(c);
 
 		Set<Proposition> goalProps = this.propnet.getGoalPropositions().get(role);
 		for (Proposition p : goalProps) {
@@ -165,10 +169,25 @@ public class TeapotPropnetStateMachine extends StateMachine {
 		return 0;
 	}
 
+	@Override
+	public int[] getGoalValues(MachineState state) throws GoalDefinitionException {
+		this.markbases(state);
+
+		int[] goals = new int[this.roles.size()];
+		for (int r = 0; r < goals.length; r++) {
+			for (Proposition p : this.propnet.getGoalPropositions().get(this.roles.get(r))) {
+				if (p.getValue()) {
+					goals[r] = this.getGoalValue(p);
+					break;
+				}
+			}
+		}
+		return goals;
+	}
+
 	@Override
 	public boolean isTerminal(MachineState state) {
 		this.markbases(state);
-		for (Component c : this.basePropositions) forwardprop(c);
 		return this.propnet.getTerminalProposition().getValue();
 	}
 
@@ -186,6 +205,12 @@ public class TeapotPropnetStateMachine extends StateMachine {
 			if ((c instanceof Not)) ((Not) c).useFastMethod = true;
 		}
 		for (Component c : this.propnet.getComponents()) if ((c instanceof Constant)) forwardprop(c);
+
+		// Start from no bases and no moves, whatever an earlier query loaded
+		this.markbases(new MachineState(new BitSet()));
+		this.markactions(Collections.<Move>emptyList());
+		for (Component c : this.inputPropositions) forwardprop(c);
+
 		Proposition initProp = this.propnet.getInitProposition();
 		if (initProp != null) {
 			this.propnet.getInitProposition().setValue(true);
@@ -213,7 +238,6 @@ public class TeapotPropnetStateMachine extends StateMachine {
 	@Override
 	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
 		this.markbases(state);
-		for (Component c : this.basePropositions) forwardprop(c);
 		Proposition[] legalProps = this.legalPropositions.get(role);
 		ArrayList<Move> moves = new ArrayList<Move>();
 		for (Proposition p : legalProps) {
@@ -222,11 +246,25 @@ public class TeapotPropnetStateMachine extends StateMachine {
 		return moves;
 	}
 
+	@Override
+	public List<List<Move>> getAllLegalMoves(MachineState state) throws MoveDefinitionException {
+		this.markbases(state);
+
+		List<List<Move>> legals = new ArrayList<List<Move>>(this.roles.size());
+		for (Role r : this.roles) {
+			ArrayList<Move> moves = new ArrayList<Move>();
+			for (Proposition p : this.legalPropositions.get(r)) {
+				if (p.getValue()) moves.add(TeapotPropnetStateMachine.getMoveFromProposition(p));
+			}
+			legals.add(moves);
+		}
+		return legals;
+	}
+
 	@Override
 	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
 		this.markactions(moves);
 		this.markbases(state);
-		for (Component c : this.basePropositions) forwardprop(c);
 		for (Component c : this.inputPropositions) forwardprop(c);
 
 		BitSet activeStates = new BitSet(this.basePropositions.length);
@@ -263,12 +301,24 @@ public class TeapotPropnetStateMachine extends StateMachine {
 		}
 	}
 
+	/**
+	 * Loads state s into the net, marking and propagating only the bases
+	 * that differ from the loaded state. Marking the loaded state again
+	 * costs a XOR.
+	 */
 	private void markbases(MachineState s) {
-		BitSet activeBits = s.getPropContents();
-		for (int i = 0; i < this.basePropositions.length; i++) {
-			this.basePropositions[i].setPreviousValue(this.basePropositions[i].getValue());
-			this.basePropositions[i].setValue(activeBits.get(i));
+		BitSet flipped = this.flippedBases;
+		flipped.clear();
+		flipped.or(this.loadedBases);
+		flipped.xor(s.getPropContents());
+
+		for (int i = flipped.nextSetBit(0); i >= 0; i = flipped.nextSetBit(i + 1)) {
+			Proposition p = this.basePropositions[i];
+			p.setPreviousValue(p.getValue());
+			p.setValue(!p.getValue());
+			forwardprop(p);
 		}
+		this.loadedBases.xor(flipped);
 	}
 
 	private void markactions(List<Move> moves) {
@@ -0,0 +1,559 @@
+/**
+ * The compiled, read-only form of a Propnet. A topology is built once per game
+ * and shared by every TeapotBetaPropnetStateMachine instance; each instance
+ * only owns the mutable values and counters for its own thread.
+ */
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+public final class TeapotPropnetTopology {
+
+	// MARK: - Constants
+	static final int AND_COMP = 0;
+	static final int CONSTANT_COMP = 1;
+	static final int NOT_COMP = 2;
+	static final int OR_COMP = 3;
+	static final int PROPOSITION_COMP = 4;
+	static final int TRANSITION_COMP = 5;
+
+	static final int NO_COMPONENT = -1;
+
+	/** Fixed, so every machine for a game hashes its states alike **/
+	private static final long ZOBRIST_SEED = 0x7ea9072eL;
+
+	// MARK: - Variables
+
+	/** The PropNet **/
+	final PropNet propnet;
+
+	/** Game Description **/
+	final List<Gdl> description;
+
+	/** Roles **/
+	final List<Role> roles;
+
+	/** Zero Sum **/
+	private boolean zeroSum = true;
+
+	/** Number of Components **/
+	final int numComponents;
+
+	/** All Base Props, indexed by position in the state **/
+	final Proposition[] basePropositions;
+
+	/** Legal Props, indexed by role **/
+	final Proposition[][] legalPropositions;
+
+	/** External Representation: Metadata (type, #inputs, #outputs, offset) **/
+	final int[] externalRepMetadata;
+
+	/** External Representation: Outputs **/
+	final int[] externalRepOutputs;
+
+	/** External Representation: Inputs, starting at externalRepInputOffsets[id] **/
+	final int[] externalRepInputs;
+	final int[] externalRepInputOffsets;
+
+	/** Components whose value is set from outside (bases, inputs, init) **/
+	final boolean[] externallySet;
+
+	/** Constants which are true **/
+	final boolean[] constantValues;
+
+	/** Base Proposition IDs, indexed by position in the state **/
+	final int[] baseIds;
+
+	/** Transition IDs feeding each base, indexed by position in the state **/
+	final int[] transitionIds;
+
+	/** Random Zobrist keys, indexed by position in the state **/
+	final long[] zobristKeys;
+
+	/** Legal Proposition IDs, indexed by role **/
+	final int[][] legalIds;
+
+	/** Input Proposition IDs matching each legal (or NO_COMPONENT), indexed by role **/
+	final int[][] legalInputIds;
+
+	/** Goal Proposition IDs and Values, indexed by role **/
+	final int[][] goalIds;
+	final int[][] goalValues;
+
+	/** Terminal and Init IDs **/
+	final int terminalId;
+	final int initId;
+
+	/** Maps Move -> Input Proposition ID, indexed by role **/
+	final List<Map<GdlTerm, Integer>> inputMap;
+
+	/** Moves matching each legal, and Move -> index into legalIds, indexed by role **/
+	final Move[][] legalMoves;
+	final List<Map<GdlTerm, Integer>> legalIndices;
+
+	/** Non-external components that only depend on the state, in topological order **/
+	final int[] stateOrder;
+
+	/** Non-external components that depend on an input, in topological order **/
+	final int[] inputOrder;
+
+	/** True if the net has a cycle that does not pass through a transition **/
+	final boolean cyclic;
+
+	/**
+	 * Builds the Propnet for the description and compiles it, through the
+	 * cache in TeapotPropnetCache.DEFAULT_DIR.
+	 */
+	public static TeapotPropnetTopology create(List<Gdl> description) {
+		return new TeapotPropnetTopology(description, true, TeapotPropnetCache.DEFAULT_DIR);
+	}
+
+	/**
+	 * As create, but lets the caller turn off the topological layout and keep
+	 * the components in hash order (for benchmarking), and pick the cache
+	 * directory.
+	 *
+	 * @param cacheDir where optimized nets are cached, or null to always
+	 * build the net afresh
+	 */
+	public static TeapotPropnetTopology create(List<Gdl> description, boolean topologicalLayout, File cacheDir) {
+		return new TeapotPropnetTopology(description, topologicalLayout, cacheDir);
+	}
+
+	private TeapotPropnetTopology(List<Gdl> description, boolean topologicalLayout, File cacheDir) {
+		this.description = this.sanitizeDistinct(description);
+
+		// Create the PropNet, or load the optimized one from an earlier match
+		PropNet pn = (cacheDir != null) ? TeapotPropnetCache.load(cacheDir, this.description) : null;
+		boolean cached = (pn != null);
+		if (!cached) {
+			try {
+				pn = OptimizingPropNetFactory.create(this.description);
+			} catch (InterruptedException e) {
+				// Only a cancelled build is interrupted (see TeapotHotSwapStateMachine.cancel)
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("PropNet build interrupted", e);
+			}
+		}
+		this.propnet = pn;
+
+		// Get the Roles
+		this.roles = this.propnet.getRoles();
+
+		// Determine Zero-Sum Property
+		this.determineZeroSum();
+		if (this.zeroSum) System.out.println("[PropNet] This Game is ZeroSum");
+		else System.out.println("[PropNet] This Game is NOT ZeroSum");
+
+		// mark input/bases
+		for (Proposition p : this.propnet.getInputPropositions().values()) p.setInput(true);
+		for (Proposition p : this.propnet.getBasePropositions().values()) p.setBase(true);
+		for (Role r : this.propnet.getRoles()) {
+			for (Proposition p : this.propnet.getLegalPropositions().get(r)) p.setLegal(true);
+			for (Proposition p : this.propnet.getGoalPropositions().get(r))  p.setGoal(true);
+		}
+
+		// Optimization
+		if (!cached) {
+			TeapotPropnetOptimizer.standard().run(this.propnet);
+			if (cacheDir != null) TeapotPropnetCache.store(cacheDir, this.description, this.propnet);
+		}
+
+		// Crystalization and Finalization
+		for (Component c : this.propnet.getComponents()) c.crystalize();
+
+		// Conversion into External Representation
+		this.numComponents = this.propnet.getComponents().size();
+		this.externalRepMetadata = new int[4 * this.numComponents];
+
+		List<Component> layout = (topologicalLayout) ? this.topologicalLayout() : new ArrayList<>(this.propnet.getComponents());
+
+		int identifier = 0, offset = 0;
+		for (Component c : layout) {
+			c.componentId = identifier;
+			TeapotPropnetTopology.externalRepSetMetadata(this.externalRepMetadata, identifier, c, offset);
+			identifier++;
+			offset += c.numberOfOutputs();
+		}
+
+		// Fan-outs are sorted so propagation walks the counters front to back
+		this.externalRepOutputs = new int[offset];
+		for (Component c : layout) {
+			int loc = this.externalRepMetadata[4 * c.componentId + 3];
+			for (Component cc : c.crystalizedGetOutputs()) {
+				this.externalRepOutputs[loc] = cc.componentId;
+				loc++;
+			}
+			if (topologicalLayout) Arrays.sort(this.externalRepOutputs, this.externalRepMetadata[4 * c.componentId + 3], loc);
+		}
+
+		this.externalRepInputOffsets = new int[this.numComponents + 1];
+		for (int id = 0; id < this.numComponents; id++) {
+			this.externalRepInputOffsets[id + 1] = this.externalRepInputOffsets[id] + this.externalRepMetadata[4 * id + 1];
+		}
+		this.externalRepInputs = new int[this.externalRepInputOffsets[this.numComponents]];
+		for (Component c : this.propnet.getComponents()) {
+			int loc = this.externalRepInputOffsets[c.componentId];
+			for (Component cc : c.crystalizedGetInputs()) {
+				this.externalRepInputs[loc] = cc.componentId;
+				loc++;
+			}
+		}
+
+		// Indices into the External Representation
+		List<Proposition> bases = new ArrayList<Proposition>(this.propnet.getBasePropositions().values());
+		this.basePropositions = new Proposition[bases.size()];
+		this.baseIds = new int[bases.size()];
+		this.transitionIds = new int[bases.size()];
+		for (int i = 0; i < this.basePropositions.length; i++) {
+			this.basePropositions[i] = bases.get(i);
+			this.baseIds[i] = bases.get(i).componentId;
+			this.transitionIds[i] = bases.get(i).crystalizedGetSingleInput().componentId;
+		}
+
+		Random random = new Random(ZOBRIST_SEED);
+		this.zobristKeys = new long[bases.size()];
+		for (int i = 0; i < this.zobristKeys.length; i++) this.zobristKeys[i] = random.nextLong();
+
+		this.legalPropositions = new Proposition[this.roles.size()][];
+		this.legalIds = new int[this.roles.size()][];
+		this.legalInputIds = new int[this.roles.size()][];
+		this.goalIds = new int[this.roles.size()][];
+		this.goalValues = new int[this.roles.size()][];
+		this.inputMap = new ArrayList<>();
+		this.legalMoves = new Move[this.roles.size()][];
+		this.legalIndices = new ArrayList<>();
+		for (int r = 0; r < this.roles.size(); r++) {
+			Role role = this.roles.get(r);
+
+			Set<Proposition> legals = this.propnet.getLegalPropositions().get(role);
+			if (legals == null) legals = new HashSet<>();
+			this.legalPropositions[r] = new Proposition[legals.size()];
+			this.legalIds[r] = new int[legals.size()];
+			this.legalInputIds[r] = new int[legals.size()];
+			this.legalMoves[r] = new Move[legals.size()];
+			Map<GdlTerm, Integer> buf = new HashMap<>();
+			Map<GdlTerm, Integer> indices = new HashMap<>();
+			int i = 0;
+			for (Proposition p : legals) {
+				Proposition input = this.propnet.getLegalInputMap().get(p);
+				this.legalPropositions[r][i] = p;
+				this.legalIds[r][i] = p.componentId;
+				this.legalInputIds[r][i] = (input == null) ? NO_COMPONENT : input.componentId;
+				this.legalMoves[r][i] = new Move(p.getName().get(1));
+				buf.put(p.getName().get(1), this.legalInputIds[r][i]);
+				indices.put(p.getName().get(1), i);
+				i++;
+			}
+			this.inputMap.add(buf);
+			this.legalIndices.add(indices);
+
+			Set<Proposition> goals = this.propnet.getGoalPropositions().get(role);
+			if (goals == null) goals = new HashSet<>();
+			this.goalIds[r] = new int[goals.size()];
+			this.goalValues[r] = new int[goals.size()];
+			i = 0;
+			for (Proposition p : goals) {
+				this.goalIds[r][i] = p.componentId;
+				this.goalValues[r][i] = this.getGoalValue(p);
+				i++;
+			}
+		}
+
+		this.terminalId = this.propnet.getTerminalProposition().componentId;
+		this.initId = (this.propnet.getInitProposition() != null) ? this.propnet.getInitProposition().componentId : NO_COMPONENT;
+
+		this.externallySet = new boolean[this.numComponents];
+		this.constantValues = new boolean[this.numComponents];
+		for (Component c : this.propnet.getComponents()) {
+			if (c.isBase() || c.isInput() || c.componentId == this.initId) this.externallySet[c.componentId] = true;
+			if ((c instanceof Constant) && c.getValue()) this.constantValues[c.componentId] = true;
+		}
+
+		// Evaluation Order (Kahn's algorithm; nothing propagates out of a transition)
+		int[] indegree = new int[this.numComponents];
+		for (int id = 0; id < this.numComponents; id++) {
+			for (int i = this.externalRepInputOffsets[id]; i < this.externalRepInputOffsets[id + 1]; i++) {
+				if (!this.isTransition(this.externalRepInputs[i])) indegree[id]++;
+			}
+		}
+
+		int[] order = new int[this.numComponents];
+		int head = 0, tail = 0;
+		for (int id = 0; id < this.numComponents; id++) if (indegree[id] == 0) order[tail++] = id;
+		while (head < tail) {
+			int id = order[head++];
+			if (this.isTransition(id)) continue;
+			int start = this.externalRepMetadata[id * 4 + 3];
+			int end = start + this.externalRepMetadata[id * 4 + 2];
+			for (int i = start; i < end; i++) {
+				int o = this.externalRepOutputs[i];
+				if (--indegree[o] == 0) order[tail++] = o;
+			}
+		}
+
+		// Anything left over sits on a cycle and has to be iterated to a fixed point
+		this.cyclic = tail < this.numComponents;
+		if (this.cyclic) {
+			for (int id = 0; id < this.numComponents; id++) if (indegree[id] > 0) order[tail++] = id;
+			System.out.println("[PropNet] Net has a combinational cycle");
+		}
+
+		boolean[] dependsOnInput = new boolean[this.numComponents];
+		for (int[] inputs : this.legalInputIds) {
+			for (int id : inputs) if (id != NO_COMPONENT) dependsOnInput[id] = true;
+		}
+		boolean changed = true;
+		while (changed) {	// one pass unless cyclic
+			changed = false;
+			for (int id : order) {
+				if (dependsOnInput[id]) continue;
+				for (int i = this.externalRepInputOffsets[id]; i < this.externalRepInputOffsets[id + 1]; i++) {
+					int in = this.externalRepInputs[i];
+					if (dependsOnInput[in] && !this.isTransition(in)) {
+						dependsOnInput[id] = changed = true;
+						break;
+					}
+				}
+			}
+		}
+
+		int numState = 0, numInput = 0;
+		for (int id : order) {
+			if (this.externallySet[id] || this.externalRepMetadata[id * 4] == CONSTANT_COMP) continue;
+			if (dependsOnInput[id]) numInput++;
+			else numState++;
+		}
+		this.stateOrder = new int[numState];
+		this.inputOrder = new int[numInput];
+		numState = 0; numInput = 0;
+		for (int id : order) {
+			if (this.externallySet[id] || this.externalRepMetadata[id * 4] == CONSTANT_COMP) continue;
+			if (dependsOnInput[id]) this.inputOrder[numInput++] = id;
+			else this.stateOrder[numState++] = id;
+		}
+
+		System.out.println("[PropNet] External Representation: " + identifier + " components, " + offset + " links"
+				+ ((topologicalLayout) ? " (topological layout)" : " (hash layout)"));
+
+		// Everything from here on reads the arrays; drop the per-component sets
+		long released = this.propnet.freeze();
+		System.out.println("[PropNet] Froze PropNet, released ~" + (released >> 10) + " KB of set adjacency");
+	}
+
+	/////////////
+	// Returns //
+	/////////////
+
+	public PropNet getPropNet() {
+		return this.propnet;
+	}
+
+	public List<Gdl> getDescription() {
+		return this.description;
+	}
+
+	public boolean isZeroSum() {
+		return this.zeroSum;
+	}
+
+	public int getNumComponents() {
+		return this.numComponents;
+	}
+
+	public boolean isCyclic() {
+		return this.cyclic;
+	}
+
+	/**
+	 * @return the Zobrist hash of a state: the XOR of the keys of its true bases
+	 */
+	public long zobristHash(BitSet bits) {
+		long hash = 0;
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) hash ^= this.zobristKeys[i];
+		return hash;
+	}
+
+	/////////////////////
+	// Generic Helpers //
+	/////////////////////
+
+	/**
+	 * Determines whether or not the game is zero-sum
+	 */
+	private void determineZeroSum() {
+		for (Role r : this.propnet.getRoles()) {
+			for (Proposition p : this.propnet.getGoalPropositions().get(r)) {
+				if (this.getGoalValue(p) != 0 && this.getGoalValue(p) != 100 && this.getGoalValue(p) != 50) {
+					this.zeroSum = false;
+				}
+			}
+
+			if (!this.zeroSum) break;
+		}
+	}
+
+	/**
+	 * Helper method for parsing the value of a goal proposition
+	 * @param goalProposition
+	 * @return the integer value of the goal proposition
+	 */
+	private int getGoalValue(Proposition goalProposition) {
+		GdlRelation relation = (GdlRelation) goalProposition.getName();
+		GdlConstant constant = (GdlConstant) relation.get(1);
+		return Integer.parseInt(constant.toString());
+	}
+
+	/**
+	 * Orders the components breadth first from the bases, inputs and
+	 * constants, so that a component comes after all of its inputs (edges out
+	 * of transitions aside) and propagation mostly moves forward through the
+	 * arrays. Components on a combinational cycle go at the end.
+	 */
+	private List<Component> topologicalLayout() {
+		Map<Component, Integer> indegree = new HashMap<>();
+		ArrayDeque<Component> queue = new ArrayDeque<>();
+
+		// Sources first, in state order, so neighbouring bases stay together
+		List<Component> sources = new ArrayList<>();
+		sources.addAll(this.propnet.getBasePropositions().values());
+		sources.addAll(this.propnet.getInputPropositions().values());
+		for (Component c : this.propnet.getComponents()) {
+			int n = 0;
+			for (Component in : c.getInputs()) if (!(in instanceof Transition)) n++;
+			indegree.put(c, n);
+			if (n == 0 && !c.isBase() && !c.isInput()) sources.add(c);
+		}
+		for (Component c : sources) {
+			if (indegree.get(c) == 0) {
+				indegree.put(c, -1);
+				queue.add(c);
+			}
+		}
+
+		List<Component> layout = new ArrayList<>(this.propnet.getSize());
+		while (!queue.isEmpty()) {
+			Component c = queue.poll();
+			layout.add(c);
+			if (c instanceof Transition) continue;
+			for (Component out : c.getOutputs()) {
+				int n = indegree.get(out) - 1;
+				indegree.put(out, n);
+				if (n == 0) {
+					indegree.put(out, -1);
+					queue.add(out);
+				}
+			}
+		}
+
+		if (layout.size() < this.propnet.getSize()) {
+			for (Component c : this.propnet.getComponents()) if (indegree.get(c) >= 0) layout.add(c);
+		}
+		return layout;
+	}
+
+	private boolean isTransition(int id) {
+		return this.externalRepMetadata[id * 4] == TRANSITION_COMP;
+	}
+
+	private static void externalRepSetMetadata(int[] arr, int id, Component c, int offset) {
+		// Component Type
+		if (c instanceof And) {
+			arr[id * 4 + 0] = AND_COMP;
+		} else if (c instanceof Constant) {
+			arr[id * 4 + 0] = CONSTANT_COMP;
+		} else if (c instanceof Not) {
+			arr[id * 4 + 0] = NOT_COMP;
+		} else if (c instanceof Or) {
+			arr[id * 4 + 0] = OR_COMP;
+		} else if (c instanceof Proposition) {
+			arr[id * 4 + 0] = PROPOSITION_COMP;
+		} else if (c instanceof Transition) {
+			arr[id * 4 + 0] = TRANSITION_COMP;
+		}
+
+		arr[id * 4 + 1] = c.numberOfInputs();
+		arr[id * 4 + 2] = c.numberOfOutputs();
+		arr[id * 4 + 3] = offset;
+	}
+
+	/////////////////////
+	// Sanitize Helper //
+	/////////////////////
+
+	private void sanitizeDistinctHelper(Gdl gdl, List<Gdl> in, List<Gdl> out) {
+		if (!(gdl instanceof GdlRule)) {
+			out.add(gdl);
+			return;
+		}
+		GdlRule rule = (GdlRule) gdl;
+		for (GdlLiteral lit : rule.getBody()) {
+			if (lit instanceof GdlDistinct) {
+				GdlDistinct d = (GdlDistinct) lit;
+				GdlTerm a = d.getArg1();
+				GdlTerm b = d.getArg2();
+				if (!(a instanceof GdlFunction) && !(b instanceof GdlFunction)) continue;
+				if (!(a instanceof GdlFunction && b instanceof GdlFunction)) return;
+				GdlSentence af = ((GdlFunction) a).toSentence();
+				GdlSentence bf = ((GdlFunction) b).toSentence();
+				if (!af.getName().equals(bf.getName())) return;
+				if (af.arity() != bf.arity()) return;
+				for (int i = 0; i < af.arity(); i++) {
+					List<GdlLiteral> ruleBody = new ArrayList<>();
+					for (GdlLiteral newLit : rule.getBody()) {
+						if (newLit != lit) ruleBody.add(newLit);
+						else ruleBody.add(GdlPool.getDistinct(af.get(i), bf.get(i)));
+					}
+					GdlRule newRule = GdlPool.getRule(rule.getHead(), ruleBody);
+					in.add(newRule);
+				}
+				return;
+			}
+		}
+		for (GdlLiteral lit : rule.getBody()) {
+			if (lit instanceof GdlDistinct) {
+				break;
+			}
+		}
+		out.add(rule);
+	}
+
+	private List<Gdl> sanitizeDistinct(List<Gdl> description) {
+		List<Gdl> out = new ArrayList<>();
+		for (int i = 0; i < description.size(); i++) {
+			sanitizeDistinctHelper(description.get(i), description, out);
+		}
+		return out;
+	}
+}
@@ -102,12 +102,7 @@ public class GameServer extends Thread implements Subject
     }
 
     public List<Integer> getGoals() throws GoalDefinitionException {
-        List<Integer> goals = new ArrayList<Integer>();
-        for (Role role : stateMachine.getRoles()) {
-            goals.add(stateMachine.getGoal(currentState, role));
-        }
-
-        return goals;
+        return stateMachine.getGoals(currentState);
     }
 
     public StateMachine getStateMachine() {
@@ -261,8 +256,9 @@ public class GameServer extends Thread implements Subject
 
     protected synchronized List<Move> sendPlayRequests() throws InterruptedException, MoveDefinitionException {
         List<PlayRequestThread> threads = new ArrayList<PlayRequestThread>(hosts.size());
+        List<List<Move>> allLegalMoves = stateMachine.getAllLegalMoves(currentState);
         for (int i = 0; i < hosts.size(); i++) {
-            List<Move> legalMoves = stateMachine.getLegalMoves(currentState, stateMachine.getRoles().get(i));
+            List<Move> legalMoves = allLegalMoves.get(i);
             if (playerPlaysRandomly[i]) {
             	threads.add(new RandomPlayRequestThread(match, legalMoves));
             } else {
@@ -1,7 +1,10 @@
 package org.ggp.base.util.propnet.architecture;
 
 import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 /**
@@ -14,10 +17,10 @@ public abstract class Component implements Serializable
 {
 
 	private static final long serialVersionUID = 352524175700224447L;
-	/** The inputs_collection to the component. */
-	private final Set<Component> inputs_collection;
-	/** The outputs_collection of the component. */
-	private final Set<Component> outputs_collection;
+	/** The inputs_collection to the component (null once frozen). */
+	private Set<Component> inputs_collection;
+	/** The outputs_collection of the component (null once frozen). */
+	private Set<Component> outputs_collection;
 
 	/////////////////////////////
 	//  Speedy Implementation  //
@@ -87,6 +90,61 @@ public abstract class Component implements Serializable
 		}
 	}
 
+	/**
+	 * Crystalizes the component and releases the set-based adjacency, keeping
+	 * only the arrays. getInputs and getOutputs become read-only views of the
+	 * arrays, and adding or removing links throws IllegalStateException.
+	 *
+	 * @return an estimate of the bytes released
+	 */
+	public long freeze() {
+		if (isFrozen()) return 0;
+		crystalize();
+		long released = estimateSetBytes(inputs_collection.size()) + estimateSetBytes(outputs_collection.size());
+		inputs_collection = null;
+		outputs_collection = null;
+		return released;
+	}
+
+	public boolean isFrozen() {
+		return inputs_collection == null;
+	}
+
+	/**
+	 * Rough retained size of a HashSet with size elements (compressed oops):
+	 * the set and its map, the bucket table and one node per element.
+	 */
+	private static long estimateSetBytes(int size) {
+		long bytes = 16 + 48 + 32L * size;
+		if (size > 0) bytes += 16 + 4L * Integer.highestOneBit(Math.max(16, (int) (size / 0.75f) + 1) * 2 - 1);
+		return bytes;
+	}
+
+	private void checkNotFrozen() {
+		if (isFrozen()) throw new IllegalStateException("Component is frozen");
+	}
+
+	/**
+	 * Read-only Set view of a crystalized adjacency array.
+	 */
+	private static final class FrozenAdjacency extends AbstractSet<Component> {
+		private final Component[] components;
+
+		FrozenAdjacency(Component[] components) {
+			this.components = components;
+		}
+
+		@Override
+		public Iterator<Component> iterator() {
+			return Arrays.asList(components).iterator();
+		}
+
+		@Override
+		public int size() {
+			return components.length;
+		}
+	}
+
     /**
      * Getter method.
      *
@@ -151,37 +209,44 @@ public abstract class Component implements Serializable
 	 */
 	public void addInput(Component input)
 	{
+		checkNotFrozen();
 		inputs_collection.add(input);
 	}
 
 	public void removeInput(Component input)
 	{
+		checkNotFrozen();
 		inputs_collection.remove(input);
 	}
 
-	public void removeOutput(Component output)
+	public synchronized void removeOutput(Component output)
 	{
+		checkNotFrozen();
 		outputs_collection.remove(output);
 	}
 
 	public void removeAllInputs()
 	{
+		checkNotFrozen();
 		inputs_collection.clear();
 	}
 
 	public void removeAllOutputs()
 	{
+		checkNotFrozen();
 		outputs_collection.clear();
 	}
 
 	/**
-	 * Adds a new output.
+	 * Adds a new output. Synchronized, since the propnet factory links
+	 * several new components to the same existing one concurrently.
 	 *
 	 * @param output
 	 *            A new output.
 	 */
-	public void addOutput(Component output)
+	public synchronized void addOutput(Component output)
 	{
+		checkNotFrozen();
 		outputs_collection.add(output);
 	}
 
@@ -192,6 +257,7 @@ public abstract class Component implements Serializable
 	 */
 	public Set<Component> getInputs()
 	{
+		if (isFrozen()) return new FrozenAdjacency(inputs);
 		return inputs_collection;
 	}
 
@@ -203,6 +269,7 @@ public abstract class Component implements Serializable
 	 * @return The single input to the component.
 	 */
 	public Component getSingleInput() {
+		if (isFrozen()) return single_input;
 		assert inputs_collection.size() == 1;
 		return inputs_collection.iterator().next();
 	}
@@ -214,6 +281,7 @@ public abstract class Component implements Serializable
 	 */
 	public Set<Component> getOutputs()
 	{
+		if (isFrozen()) return new FrozenAdjacency(outputs);
 		return outputs_collection;
 	}
 
@@ -225,6 +293,7 @@ public abstract class Component implements Serializable
 	 * @return The single output to the component.
 	 */
 	public Component getSingleOutput() {
+		if (isFrozen()) return single_output;
 		assert outputs_collection.size() == 1;
 		return outputs_collection.iterator().next();
 	}
@@ -282,6 +282,36 @@ public final class PropNet
         }
     }
 
+    /**
+     * Outputs the propnet in .dot format to a particular file, overriding the
+     * fill color of the given components (e.g. to render a heat map).
+     *
+     * @param filename the name of the file to output to
+     * @param fillColors a .dot color for each component to recolor
+     */
+    public void renderToFile(String filename, Map<Component, String> fillColors) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("digraph propNet\n{\n");
+        for (Component component : components) {
+            String dot = component.toString();
+            String color = fillColors.get(component);
+            if (color != null) dot = dot.replaceFirst("fillcolor=[^,]*", "fillcolor=\"" + color + "\"");
+            sb.append("\t" + dot + "\n");
+        }
+        sb.append("}");
+
+        try {
+            File f = new File(filename);
+            FileOutputStream fos = new FileOutputStream(f);
+            OutputStreamWriter fout = new OutputStreamWriter(fos, "UTF-8");
+            fout.write(sb.toString());
+            fout.close();
+            fos.close();
+        } catch(Exception e) {
+            GamerLogger.logStackTrace("StateMachine", e);
+        }
+    }
+
 	/**
 	 * Builds an index over the BasePropositions in the PropNet.
 	 *
@@ -491,6 +521,22 @@ public final class PropNet
 		return linkCount;
 	}
 
+	/**
+	 * Freezes every component (see Component.freeze), releasing the set-based
+	 * adjacency once the net is final. The links stay readable through the
+	 * crystalized arrays and read-only getInputs/getOutputs views, but the net
+	 * can no longer be rewired.
+	 *
+	 * @return an estimate of the bytes released
+	 */
+	public long freeze() {
+		long released = 0;
+		for(Component c : components) {
+			released += c.freeze();
+		}
+		return released;
+	}
+
 	/**
 	 * Removes a component from the propnet. Be very careful when using
 	 * this method, as it is not thread-safe. It is highly recommended
@@ -12,6 +12,12 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -105,6 +111,9 @@ public class OptimizingPropNetFactory {
     static final private GdlConstant INPUT = GdlPool.getConstant("input");
 	static final private GdlProposition TEMP = GdlPool.getProposition(GdlPool.getConstant("TEMP"));
 
+	/** Threads used to add independent sentence forms concurrently, unless told otherwise **/
+	static final private int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
 	/**
 	 * Creates a PropNet for the game with the given description.
 	 *
@@ -117,6 +126,15 @@ public class OptimizingPropNetFactory {
 	}
 
 	public static PropNet create(List<Gdl> description, boolean verbose) throws InterruptedException {
+		return create(description, verbose, DEFAULT_THREADS);
+	}
+
+	/**
+	 * Creates a PropNet, adding the independent sentence forms of each level
+	 * of the dependency graph on numThreads threads. With one thread every
+	 * form is added in topological order on the calling thread.
+	 */
+	public static PropNet create(List<Gdl> description, boolean verbose, int numThreads) throws InterruptedException {
 		//System.out.println("Building propnet...");
 
 		long startTime = System.currentTimeMillis();
@@ -168,57 +186,44 @@ public class OptimizingPropNetFactory {
 			System.out.println("done");
 
 		List<Role> roles = Role.computeRoles(description);
-		Map<GdlSentence, Component> components = new HashMap<GdlSentence, Component>();
-		Map<GdlSentence, Component> negations = new HashMap<GdlSentence, Component>();
+		//Forms at the same level of the ordering only depend on earlier levels,
+		//so each level's forms can be added concurrently
+		Map<GdlSentence, Component> components = new ConcurrentHashMap<GdlSentence, Component>();
+		Map<GdlSentence, Component> negations = new ConcurrentHashMap<GdlSentence, Component>();
 		Constant trueComponent = new Constant(true);
 		Constant falseComponent = new Constant(false);
-		Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
-		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-		for(SentenceForm form : topologicalOrdering) {
-			ConcurrencyUtils.checkForInterruption();
-
-			if(verbose) {
-				System.out.print("Adding sentence form " + form);
-				System.out.flush();
-			}
-			if(constantChecker.isConstantForm(form)) {
-				if(verbose)
-					System.out.println(" (constant)");
-				//Only add it if it's important
-				if(form.getName().equals(LEGAL)
-						|| form.getName().equals(GOAL)
-						|| form.getName().equals(INIT)) {
-					//Add it
-					for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-						Proposition trueProp = new Proposition(trueSentence);
-						trueProp.addInput(trueComponent);
-						trueComponent.addOutput(trueProp);
-						components.put(trueSentence, trueComponent);
+		Map<SentenceForm, FunctionInfo> functionInfoMap = new ConcurrentHashMap<SentenceForm, FunctionInfo>();
+		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new ConcurrentHashMap<SentenceForm, Collection<GdlSentence>>();
+		ExecutorService pool = (numThreads > 1) ? Executors.newFixedThreadPool(numThreads) : null;
+		try {
+			for(List<SentenceForm> level : getLevels(topologicalOrdering, dependencyGraph, usingBase, usingInput)) {
+				List<SentenceForm> independent = new ArrayList<SentenceForm>();
+				List<SentenceForm> recursive = new ArrayList<SentenceForm>();
+				for(SentenceForm form : level) {
+					ConcurrencyUtils.checkForInterruption();
+
+					if(constantChecker.isConstantForm(form)) {
+						addConstantForm(form, components, trueComponent, functionInfoMap, constantChecker, completedSentenceFormValues, verbose);
+					} else if(dependencyGraph.get(form).contains(form)) {
+						//Its temporary components get rewired across the whole net
+						recursive.add(form);
+					} else {
+						independent.add(form);
 					}
 				}
 
-				if(verbose)
-					System.out.println("Checking whether " + form + " is a functional constant...");
-				addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-				addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
-
-				continue;
+				if(pool != null && independent.size() > 1) {
+					addFormsConcurrently(pool, independent, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, functionInfoMap, constantChecker, completedSentenceFormValues, verbose);
+				} else {
+					recursive.addAll(0, independent);
+				}
+				for(SentenceForm form : recursive) {
+					addForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, functionInfoMap, constantChecker, completedSentenceFormValues, verbose);
+				}
 			}
-			if(verbose)
-				System.out.println();
-			//TODO: Adjust "recursive forms" appropriately
-			//Add a temporary sentence form thingy? ...
-			Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-			Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-			addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
-			//TODO: Pass these over groups of multiple sentence forms
-			if(verbose && !temporaryComponents.isEmpty())
-				System.out.println("Processing temporary components...");
-			processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-			addFormToCompletedValues(form, completedSentenceFormValues, components);
-			//if(verbose)
-				//TODO: Add this, but with the correct total number of components (not just Propositions)
-				//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
+		} finally {
+			if(pool != null)
+				pool.shutdownNow();
 		}
 		//Connect "next" to "true"
 		if(verbose)
@@ -971,6 +976,137 @@ public class OptimizingPropNetFactory {
 		return ordering;
 	}
 
+	/**
+	 * Adds a form whose sentences are all constant. Only the true legal, goal
+	 * and init sentences become propositions.
+	 */
+	private static void addConstantForm(SentenceForm form,
+			Map<GdlSentence, Component> components, Constant trueComponent,
+			Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			boolean verbose) throws InterruptedException {
+		if(verbose)
+			System.out.println("Adding sentence form " + form + " (constant)");
+		//Only add it if it's important
+		if(form.getName().equals(LEGAL)
+				|| form.getName().equals(GOAL)
+				|| form.getName().equals(INIT)) {
+			//Add it
+			for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
+				Proposition trueProp = new Proposition(trueSentence);
+				trueProp.addInput(trueComponent);
+				trueComponent.addOutput(trueProp);
+				components.put(trueSentence, trueComponent);
+			}
+		}
+
+		if(verbose)
+			System.out.println("Checking whether " + form + " is a functional constant...");
+		addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+		addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+	}
+
+	/**
+	 * Adds a non-constant form. Safe to run concurrently for forms at the
+	 * same level, as long as none of them is recursive.
+	 */
+	private static void addForm(SentenceForm form, SentenceDomainModel model,
+			Map<GdlSentence, Component> components,
+			Map<GdlSentence, Component> negations,
+			Constant trueComponent, Constant falseComponent,
+			boolean usingBase, boolean usingInput,
+			Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			boolean verbose) throws InterruptedException {
+		if(verbose)
+			System.out.println("Adding sentence form " + form);
+		//TODO: Adjust "recursive forms" appropriately
+		//Add a temporary sentence form thingy? ...
+		Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+		Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+		addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
+		//TODO: Pass these over groups of multiple sentence forms
+		if(verbose && !temporaryComponents.isEmpty())
+			System.out.println("Processing temporary components...");
+		processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
+		addFormToCompletedValues(form, completedSentenceFormValues, components);
+		//if(verbose)
+			//TODO: Add this, but with the correct total number of components (not just Propositions)
+			//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
+	}
+
+	/**
+	 * Runs addForm for each of forms on the pool, and waits for all of them.
+	 */
+	private static void addFormsConcurrently(ExecutorService pool, List<SentenceForm> forms,
+			final SentenceDomainModel model,
+			final Map<GdlSentence, Component> components,
+			final Map<GdlSentence, Component> negations,
+			final Constant trueComponent, final Constant falseComponent,
+			final boolean usingBase, final boolean usingInput,
+			final Map<SentenceForm, FunctionInfo> functionInfoMap, final ConstantChecker constantChecker,
+			final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			final boolean verbose) throws InterruptedException {
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(forms.size());
+		for(final SentenceForm form : forms) {
+			futures.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws InterruptedException {
+					addForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, functionInfoMap, constantChecker, completedSentenceFormValues, verbose);
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for(Future<Void> future : futures)
+				future.get();
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		} finally {
+			//Only does anything if we are bailing out early
+			for(Future<Void> future : futures)
+				future.cancel(true);
+		}
+	}
+
+	/**
+	 * Groups the topological ordering into levels: each form comes one level
+	 * after the last of the forms it has to follow in the ordering.
+	 */
+	private static List<List<SentenceForm>> getLevels(List<SentenceForm> ordering,
+			Multimap<SentenceForm, SentenceForm> dependencyGraph, boolean usingBase, boolean usingInput) {
+		Map<SentenceForm, Integer> levelOf = new HashMap<SentenceForm, Integer>();
+		List<List<SentenceForm>> levels = new ArrayList<List<SentenceForm>>();
+		for(SentenceForm form : ordering) {
+			List<SentenceForm> predecessors = new ArrayList<SentenceForm>(dependencyGraph.get(form));
+			if(usingBase && (form.getName().equals(TRUE) || form.getName().equals(NEXT) || form.getName().equals(INIT)))
+				predecessors.add(form.withName(BASE));
+			if(usingInput && (form.getName().equals(DOES) || form.getName().equals(LEGAL)))
+				predecessors.add(form.withName(INPUT));
+
+			int level = 0;
+			for(SentenceForm predecessor : predecessors) {
+				Integer predecessorLevel = levelOf.get(predecessor);
+				if(!predecessor.equals(form) && predecessorLevel != null)
+					level = Math.max(level, predecessorLevel + 1);
+			}
+			levelOf.put(form, level);
+
+			while(levels.size() <= level)
+				levels.add(new ArrayList<SentenceForm>());
+			levels.get(level).add(form);
+		}
+		return levels;
+	}
+
 	private static void addSentenceForm(SentenceForm form, SentenceDomainModel model,
 			Map<GdlSentence, Component> components,
 			Map<GdlSentence, Component> negations,
@@ -1154,19 +1290,22 @@ public class OptimizingPropNetFactory {
 							}
 
 							//Check if we're sharing a component with another sentence with a negation
-							//(i.e. look for "nots" in our outputs and use those instead)
-							Not existingNotOutput = getNotOutput(positive);
-							if(existingNotOutput != null) {
-								componentsToConnect.add(existingNotOutput);
-								negations.put(transformed, existingNotOutput);
-								continue; //to the next conjunct
+							//(i.e. look for "nots" in our outputs and use those instead).
+							//Locked, as other forms may be negating positive at the same time
+							synchronized(positive) {
+								Not existingNotOutput = getNotOutput(positive);
+								if(existingNotOutput != null) {
+									componentsToConnect.add(existingNotOutput);
+									negations.put(transformed, existingNotOutput);
+									continue; //to the next conjunct
+								}
+
+								Not not = new Not();
+								not.addInput(positive);
+								positive.addOutput(not);
+								negations.put(transformed, not);
+								conj = not;
 							}
-
-							Not not = new Not();
-							not.addInput(positive);
-							positive.addOutput(not);
-							negations.put(transformed, not);
-							conj = not;
 						}
 						componentsToConnect.add(conj);
 					} else if(literal instanceof GdlDistinct) {
@@ -51,12 +51,14 @@ public class MachineState {
 	@Override
 	public int hashCode()
 	{
+		if (contents == null) return (activeBits == null) ? 0 : activeBits.hashCode();
 		return getContents().hashCode();
 	}
 
 	@Override
 	public String toString()
 	{
+		if (contents == null && activeBits != null) return activeBits.toString();
 		Set<GdlSentence> contents = getContents();
 		if(contents == null)
 			return "(MachineState with null contents)";
@@ -67,7 +69,8 @@ public class MachineState {
 	@Override
 	public boolean equals(Object o)
 	{
-		if ((o != null) && (o instanceof MachineState))
+		// Subclasses hash differently, so they are only equal among themselves
+		if ((o != null) && (o.getClass() == getClass()))
 		{
 			MachineState state = (MachineState) o;
 			if (getContents() == null) {
@@ -1,6 +1,7 @@
 package org.ggp.base.util.statemachine;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -241,16 +242,28 @@ public abstract class StateMachine
      * player.
      */
     public List<List<Move>> getLegalJointMoves(MachineState state) throws MoveDefinitionException
+    {
+        List<List<Move>> crossProduct = new ArrayList<List<Move>>();
+        crossProductLegalMoves(getAllLegalMoves(state), crossProduct, new LinkedList<Move>());
+
+        return crossProduct;
+    }
+
+    /**
+     * Returns the legal moves of every role in the given state, in the same
+     * order as {@link #getRoles()}.
+     * <p>
+     * The default implementation asks {@link #getLegalMoves(MachineState, Role)}
+     * once per role. Machines that can answer for every role from a single
+     * evaluation of the state should override this.
+     */
+    public List<List<Move>> getAllLegalMoves(MachineState state) throws MoveDefinitionException
     {
         List<List<Move>> legals = new ArrayList<List<Move>>();
         for (Role role : getRoles()) {
             legals.add(getLegalMoves(state, role));
         }
-
-        List<List<Move>> crossProduct = new ArrayList<List<Move>>();
-        crossProductLegalMoves(legals, crossProduct, new LinkedList<Move>());
-
-        return crossProduct;
+        return legals;
     }
 
     /**
@@ -260,16 +273,19 @@ public abstract class StateMachine
      */
     public List<List<Move>> getLegalJointMoves(MachineState state, Role role, Move move) throws MoveDefinitionException
     {
-        List<List<Move>> legals = new ArrayList<List<Move>>();
-        for (Role r : getRoles()) {
-            if (r.equals(role)) {
-                List<Move> m = new ArrayList<Move>();
-                m.add(move);
-                legals.add(m);
-            } else {
-                legals.add(getLegalMoves(state, r));
-            }
-        }
+        return getLegalJointMoves(getAllLegalMoves(state), role, move);
+    }
+
+    /**
+     * As {@link #getLegalJointMoves(MachineState, Role, Move)}, but from the
+     * legal moves of every role as returned by
+     * {@link #getAllLegalMoves(MachineState)}, so that they can be computed
+     * once and reused for each of the given role's moves.
+     */
+    public List<List<Move>> getLegalJointMoves(List<List<Move>> allLegalMoves, Role role, Move move)
+    {
+        List<List<Move>> legals = new ArrayList<List<Move>>(allLegalMoves);
+        legals.set(getRoleIndices().get(role), Collections.singletonList(move));
 
         List<List<Move>> crossProduct = new ArrayList<List<Move>>();
         crossProductLegalMoves(legals, crossProduct, new LinkedList<Move>());
@@ -362,12 +378,29 @@ public abstract class StateMachine
      */
     public List<Integer> getGoals(MachineState state) throws GoalDefinitionException {
         List<Integer> theGoals = new ArrayList<Integer>();
-        for (Role r : getRoles()) {
-            theGoals.add(getGoal(state, r));
+        for (int goal : getGoalValues(state)) {
+            theGoals.add(goal);
         }
         return theGoals;
     }
 
+    /**
+     * As {@link #getGoals(MachineState)}, but as an array indexed like
+     * {@link #getRoles()}.
+     * <p>
+     * The default implementation asks {@link #getGoal(MachineState, Role)}
+     * once per role. Machines that can answer for every role from a single
+     * evaluation of the state should override this.
+     */
+    public int[] getGoalValues(MachineState state) throws GoalDefinitionException {
+        List<Role> roles = getRoles();
+        int[] goals = new int[roles.size()];
+        for (int i = 0; i < goals.length; i++) {
+            goals[i] = getGoal(state, roles.get(i));
+        }
+        return goals;
+    }
+
     /**
      * Returns a random joint move from among all the possible joint moves in
      * the given state.
@@ -0,0 +1,48 @@
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TeapotBetaPropnetStateMachineTest extends Assert {
+
+	@Test
+	public void testBetaOnTicTacToe() throws Exception {
+		assertPlaysLikeProver("ticTacToe");
+	}
+
+	@Test
+	public void testBetaOnConnectFour() throws Exception {
+		assertPlaysLikeProver("connectFour");
+	}
+
+	@Test
+	public void testBetaOnSimpleMutex() throws Exception {
+		assertPlaysLikeProver("simpleMutex");
+	}
+
+	/**
+	 * Not test_case_5b: the factory drops its bodiless (next done), so no
+	 * propnet built from it ever reaches the terminal state.
+	 */
+	@Test
+	public void testBetaOnTestCases() throws Exception {
+		assertPlaysLikeProver("test_case_1a");
+		assertPlaysLikeProver("test_case_1b");
+		assertPlaysLikeProver("test_case_2a");
+		assertPlaysLikeProver("test_case_4a");
+	}
+
+	@Test
+	public void testInstancesPlayAlike() throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules("connectFour");
+		TeapotBetaPropnetStateMachine machine = new TeapotBetaPropnetStateMachine(TeapotPropnetTopology.create(rules, true, null));
+		TeapotTestNets.assertPlaysLikeProver("connectFour", rules, machine.createInstance(), TeapotTestNets.baseNames(machine.getTopology()));
+	}
+
+	private static void assertPlaysLikeProver(String game) throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules(game);
+		TeapotBetaPropnetStateMachine machine = new TeapotBetaPropnetStateMachine(TeapotPropnetTopology.create(rules, true, null));
+		TeapotTestNets.assertPlaysLikeProver(game, rules, machine, TeapotTestNets.baseNames(machine.getTopology()));
+	}
+}
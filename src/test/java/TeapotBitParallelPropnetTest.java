@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TeapotBitParallelPropnetTest extends Assert {
+
+	private static final int LANES = TeapotBitParallelPropnet.LANES;
+	private static final int PLAYOUTS = 10;
+
+	/** Most states an exhaustive search may visit before a start state is too early to check **/
+	private static final int SEARCH_BUDGET = 20000;
+
+	@Test
+	public void testSimulateOnTicTacToe() throws Exception {
+		assertEndsLikeBeta("ticTacToe");
+	}
+
+	@Test
+	public void testSimulateOnSimpleMutex() throws Exception {
+		assertEndsLikeBeta("simpleMutex");
+	}
+
+	@Test
+	public void testSimulateOnTestCases() throws Exception {
+		assertEndsLikeBeta("test_case_1a");
+		assertEndsLikeBeta("test_case_2a");
+		assertEndsLikeBeta("test_case_4a");
+	}
+
+	/**
+	 * Too far from the end to search, so only checks what every game of
+	 * these has: a length within bounds and goals that add up to 100.
+	 */
+	@Test
+	public void testSimulateFromInitialState() throws Exception {
+		assertFullGames("ticTacToe", 5, 9);
+		assertFullGames("connectFour", 7, 42);
+	}
+
+	/**
+	 * A counter only 30 increments in a row can finish, so without the
+	 * deadline every lane would run to the step limit.
+	 */
+	@Test
+	public void testSimulateStopsAtDeadline() throws Exception {
+		StringBuilder kif = new StringBuilder("(role p) (init (c 0)) (legal p inc) (legal p reset) "
+				+ "(<= (next (c ?x)) (true (c ?y)) (does p inc) (succ ?y ?x)) (<= (next (c 0)) (does p reset)) "
+				+ "(<= terminal (true (c 30))) (<= (goal p 50) (true (c ?x)))");
+		for (int i = 0; i < 30; i++) kif.append(" (succ ").append(i).append(' ').append(i + 1).append(')');
+		List<Gdl> rules = TeapotTestNets.parse(kif.toString());
+		TeapotBetaPropnetStateMachine beta = new TeapotBetaPropnetStateMachine(TeapotPropnetTopology.create(rules, true, null));
+		TeapotBitParallelPropnet net = new TeapotBitParallelPropnet(beta.getTopology());
+
+		long start = System.currentTimeMillis();
+		assertEquals(-1, net.simulate(beta.getInitialState().getPropContents(), new int[1][LANES], start + 50));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertNull(beta.performBatchDepthCharge(beta.getInitialState(), beta.getRoles().get(0), start));
+	}
+
+	/**
+	 * Walks random playouts on a Beta machine over the same topology, and
+	 * simulates from their states backwards from the end, for as long as the
+	 * game tree below is small enough to search. Every lane has to end in
+	 * one of the outcomes an exhaustive Beta search finds from that state,
+	 * and the summed depth has to lie within the search's depths.
+	 */
+	private static void assertEndsLikeBeta(String game) throws Exception {
+		TeapotBetaPropnetStateMachine beta = machine(game);
+		TeapotBitParallelPropnet net = new TeapotBitParallelPropnet(beta.getTopology());
+		int roles = beta.getRoles().size();
+		int[][] goals = new int[roles][LANES];
+
+		Random random = new Random(game.hashCode());
+		int checked = 0;
+		for (int p = 0; p < PLAYOUTS; p++) {
+			List<MachineState> playout = new ArrayList<>();
+			MachineState state = beta.getInitialState();
+			playout.add(state);
+			while (!beta.isTerminal(state)) {
+				List<List<Move>> joint = beta.getLegalJointMoves(state);
+				state = beta.getNextState(state, joint.get(random.nextInt(joint.size())));
+				playout.add(state);
+			}
+
+			for (int left = 0; left < playout.size(); left++) {
+				MachineState start = playout.get(playout.size() - 1 - left);
+				Set<List<Integer>> outcomes = new HashSet<>();
+				int[] depths = { Integer.MAX_VALUE, 0, SEARCH_BUDGET };
+				if (!search(beta, start, 0, outcomes, depths)) break;
+				checked++;
+
+				long depth = net.simulate(start.getPropContents(), goals, Long.MAX_VALUE);
+				String message = game + " " + left + " plies from the end";
+				assertTrue(message + ": depth " + depth, depth >= (long) depths[0] * LANES && depth <= (long) depths[1] * LANES);
+				for (int lane = 0; lane < LANES; lane++) {
+					List<Integer> outcome = new ArrayList<>();
+					for (int r = 0; r < roles; r++) outcome.add(goals[r][lane]);
+					assertTrue(message + ": " + outcome + " not in " + outcomes, outcomes.contains(outcome));
+				}
+			}
+		}
+		assertTrue(game, checked > PLAYOUTS);
+	}
+
+	private static void assertFullGames(String game, int minPlies, int maxPlies) throws Exception {
+		TeapotBetaPropnetStateMachine beta = machine(game);
+		TeapotBitParallelPropnet net = new TeapotBitParallelPropnet(beta.getTopology());
+		int[][] goals = new int[beta.getRoles().size()][LANES];
+
+		long depth = net.simulate(beta.getInitialState().getPropContents(), goals, Long.MAX_VALUE);
+		assertTrue(game + ": depth " + depth, depth >= (long) minPlies * LANES && depth <= (long) maxPlies * LANES);
+		for (int lane = 0; lane < LANES; lane++) assertEquals(game, 100, goals[0][lane] + goals[1][lane]);
+	}
+
+	/**
+	 * Collects the goal vectors of every terminal state reachable from state,
+	 * and the least and greatest number of plies to reach one, in depths[0]
+	 * and depths[1]. depths[2] is the number of states left to visit.
+	 *
+	 * @return false if the budget ran out before the search finished
+	 */
+	private static boolean search(TeapotBetaPropnetStateMachine beta, MachineState state, int ply, Set<List<Integer>> outcomes, int[] depths) throws Exception {
+		if (--depths[2] < 0) return false;
+		if (beta.isTerminal(state)) {
+			List<Integer> outcome = new ArrayList<>();
+			for (int goal : beta.getGoalValues(state)) outcome.add(goal);
+			outcomes.add(outcome);
+			depths[0] = Math.min(depths[0], ply);
+			depths[1] = Math.max(depths[1], ply);
+			return true;
+		}
+		for (List<Move> joint : beta.getLegalJointMoves(state)) {
+			if (!search(beta, beta.getNextState(state, joint), ply + 1, outcomes, depths)) return false;
+		}
+		return true;
+	}
+
+	private static TeapotBetaPropnetStateMachine machine(String game) {
+		List<Gdl> rules = TeapotTestNets.rules(game);
+		return new TeapotBetaPropnetStateMachine(TeapotPropnetTopology.create(rules, true, null));
+	}
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TeapotCompiledPropnetStateMachineTest extends Assert {
+
+	@Test
+	public void testCompiledOnTicTacToe() throws Exception {
+		assertPlaysLikeProver("ticTacToe");
+	}
+
+	@Test
+	public void testCompiledOnConnectFour() throws Exception {
+		assertPlaysLikeProver("connectFour");
+	}
+
+	@Test
+	public void testCompiledOnSimpleMutex() throws Exception {
+		assertPlaysLikeProver("simpleMutex");
+	}
+
+	/**
+	 * Not test_case_5b: the factory drops its bodiless (next done), so no
+	 * propnet built from it ever reaches the terminal state.
+	 */
+	@Test
+	public void testCompiledOnTestCases() throws Exception {
+		assertPlaysLikeProver("test_case_1a");
+		assertPlaysLikeProver("test_case_1b");
+		assertPlaysLikeProver("test_case_2a");
+		assertPlaysLikeProver("test_case_4a");
+	}
+
+	@Test
+	public void testInstancesPlayAlike() throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules("connectFour");
+		TeapotCompiledPropnetStateMachine machine = new TeapotCompiledPropnetStateMachine(TeapotPropnetTopology.create(rules, true, null));
+		TeapotTestNets.assertPlaysLikeProver("connectFour", rules, machine.createInstance(), TeapotTestNets.baseNames(machine.getTopology()));
+	}
+
+	/**
+	 * Replays random playouts on the index-based, in-place path the player
+	 * uses and on a Beta machine over the same topology, comparing legal
+	 * moves, states and terminality step by step.
+	 */
+	@Test
+	public void testInPlacePathMatchesBeta() throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules("connectFour");
+		TeapotPropnetTopology topology = TeapotPropnetTopology.create(rules, true, null);
+		TeapotCompiledPropnetStateMachine compiled = new TeapotCompiledPropnetStateMachine(topology);
+		TeapotBetaPropnetStateMachine beta = new TeapotBetaPropnetStateMachine(topology);
+		int roles = beta.getRoles().size();
+
+		Random random = new Random(42);
+		for (int p = 0; p < 10; p++) {
+			MachineState state = beta.getInitialState();
+			MachineState buffer = compiled.createStateBuffer();
+			compiled.copyState(compiled.getInitialState(), buffer);
+
+			for (int depth = 0; !beta.isTerminal(state); depth++) {
+				assertEquals("state at " + depth, state.getPropContents(), buffer.getPropContents());
+				assertFalse(compiled.isTerminal(buffer));
+
+				int[] jointMove = new int[roles];
+				List<Move> moves = new ArrayList<>();
+				for (int r = 0; r < roles; r++) {
+					int[] legal = new int[compiled.getNumLegals(r)];
+					int n = compiled.getLegalMoveIndices(buffer, r, legal);
+					Set<Move> indexed = new HashSet<>();
+					for (int i = 0; i < n; i++) indexed.add(compiled.getMoveTable(r)[legal[i]]);
+					assertEquals("legal moves at " + depth, new HashSet<>(beta.getLegalMoves(state, beta.getRoles().get(r))), indexed);
+
+					jointMove[r] = legal[random.nextInt(n)];
+					moves.add(compiled.getMoveTable(r)[jointMove[r]]);
+				}
+				state = beta.getNextState(state, moves);
+				compiled.advanceInPlace(buffer, jointMove);
+			}
+			assertTrue(compiled.isTerminal(buffer));
+			assertArrayEquals(beta.getGoalValues(state), compiled.getGoalValues(buffer));
+		}
+	}
+
+	private static void assertPlaysLikeProver(String game) throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules(game);
+		TeapotCompiledPropnetStateMachine machine = new TeapotCompiledPropnetStateMachine(TeapotPropnetTopology.create(rules, true, null));
+		TeapotTestNets.assertPlaysLikeProver(game, rules, machine, TeapotTestNets.baseNames(machine.getTopology()));
+	}
+}
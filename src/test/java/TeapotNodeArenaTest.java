@@ -0,0 +1,130 @@
+import java.util.BitSet;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TeapotNodeArenaTest extends Assert {
+
+	private static final int NONE = TeapotNodeArena.NONE;
+
+	private TeapotNodeArena arena;
+
+	@Test
+	public void testCompactKeepsReachableNodes() {
+		arena = new TeapotNodeArena(100);
+		int garbage1 = node(1, true);
+		int rootA = node(10, true);
+		int garbage2 = node(2, true);
+		int move = node(6, false);
+		int leaf = node(5, true);
+		int shared = node(3, true);
+		int rootB = node(20, true);
+		int garbage3 = node(4, true);
+		link(garbage1, garbage2, garbage3);
+		link(rootA, move);
+		link(move, leaf, shared);
+		link(rootB, shared);
+
+		int[] roots = { rootA, NONE, rootB };
+		arena.compact(roots);
+
+		assertEquals(5, arena.size());
+		assertEquals(NONE, roots[1]);
+
+		// Fields and child links survive the move
+		int a = roots[0], b = roots[2];
+		assertEquals(10, arena.visits[a]);
+		assertEquals(20, arena.visits[b]);
+		assertEquals(1, arena.numChildren.get(a));
+		int m = arena.child(a, 0);
+		assertEquals(6, arena.visits[m]);
+		assertNull(arena.state[m]);
+		assertEquals(2, arena.numChildren.get(m));
+		assertEquals(5, arena.visits[arena.child(m, 0)]);
+		assertEquals(3, arena.visits[arena.child(m, 1)]);
+		assertEquals(0.5, arena.utility[arena.child(m, 1)], 0);
+
+		// A transposition is still one node under both parents
+		assertEquals(1, arena.numChildren.get(b));
+		assertEquals(arena.child(m, 1), arena.child(b, 0));
+
+		// Compacting again finds nothing to free
+		arena.compact(roots);
+		assertEquals(5, arena.size());
+		assertEquals(20, arena.visits[roots[2]]);
+	}
+
+	@Test
+	public void testCompactPrunesToHalfCapacity() {
+		int capacity = 1000;
+		arena = new TeapotNodeArena(capacity);
+
+		// 634 nodes: the root, 3 children, 10 grandchildren each and 20 leaves below each grandchild
+		int root = node(1111, true);
+		int[] children = { node(1000, true), node(100, true), node(10, true) };
+		link(root, children);
+		int[][] grandchildren = new int[children.length][10];
+		for (int c = 0; c < children.length; c++) {
+			for (int g = 0; g < 10; g++) {
+				grandchildren[c][g] = node(arena.visits[children[c]] / 2, true);
+				int[] leaves = new int[20];
+				for (int l = 0; l < leaves.length; l++) leaves[l] = node(0, true);
+				link(grandchildren[c][g], leaves);
+			}
+			link(children[c], grandchildren[c]);
+		}
+		assertEquals(634, arena.size());
+
+		int[] roots = { root };
+		arena.compact(roots);
+		assertTrue(arena.size() <= capacity / 2);
+
+		// The most visited subtree stays whole, the others become leaves
+		int r = roots[0];
+		assertEquals(1111, arena.visits[r]);
+		assertEquals(3, arena.numChildren.get(r));
+		int best = arena.child(r, 0);
+		assertEquals(1000, arena.visits[best]);
+		assertEquals(10, arena.numChildren.get(best));
+		for (int g = 0; g < 10; g++) assertEquals(20, arena.numChildren.get(arena.child(best, g)));
+		assertEquals(0, arena.numChildren.get(arena.child(r, 1)));
+		assertEquals(0, arena.numChildren.get(arena.child(r, 2)));
+		assertEquals(1 + 3 + 10 + 200, arena.size());
+	}
+
+	@Test
+	public void testRootIsNeverPruned() {
+		arena = new TeapotNodeArena(100);
+		int root = node(0, true);
+		int[] leaves = new int[60];
+		for (int l = 0; l < leaves.length; l++) leaves[l] = node(0, true);
+		link(root, leaves);
+
+		int[] roots = { root };
+		arena.compact(roots);
+		assertEquals(60, arena.numChildren.get(roots[0]));
+	}
+
+	// MARK: - Helpers
+
+	/**
+	 * @return a new state node (or move node) with visits and a utility of 0.5
+	 */
+	private int node(int visits, boolean stateNode) {
+		int n = arena.allocate(1);
+		assertTrue(n != NONE);
+		if (stateNode) arena.state[n] = new MachineState(new BitSet());
+		arena.visits[n] = visits;
+		arena.utility[n] = 0.5;
+		return n;
+	}
+
+	private void link(int parent, int... children) {
+		int e = arena.allocateEdges(children.length);
+		assertTrue(e != NONE);
+		for (int i = 0; i < children.length; i++) arena.edges[e + i] = children[i];
+		arena.firstEdge[parent] = e;
+		arena.numChildren.set(parent, children.length);
+	}
+}
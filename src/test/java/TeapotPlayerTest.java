@@ -0,0 +1,62 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.statemachine.MachineState;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TeapotPlayerTest extends Assert {
+
+	private static final int CYCLES = 2000;
+
+	@Test
+	public void testTranspositionsShareNodes() throws Exception {
+		Game game = new TestGameRepository().getGame("ticTacToe");
+		List<Gdl> rules = game.getRules();
+		TeapotPlayer player = new TeapotPlayer();
+		player.setMatch(new Match("teapot.test." + System.nanoTime(), -1, 10, 10, game, ""));
+		player.setRoleName(GdlPool.getConstant("xplayer"));
+
+		TeapotNodeArena a = new TeapotNodeArena(100000);
+		int root = player.growTree(a, new TeapotBetaPropnetStateMachine(TeapotPropnetTopology.create(rules, true, null)), CYCLES);
+
+		Map<MachineState, Integer> nodes = new HashMap<>();
+		Map<Integer, Set<Integer>> parents = new HashMap<>();
+		Deque<Integer> open = new ArrayDeque<>();
+		Set<Integer> seen = new HashSet<>();
+		open.push(root);
+		seen.add(root);
+		while (!open.isEmpty()) {
+			int n = open.pop();
+			if (a.state[n] != null) {
+				// Every state has exactly one node, however it was reached
+				Integer other = nodes.put(a.state[n], n);
+				assertTrue("state " + a.state[n] + " has nodes " + other + " and " + n, other == null || other == n);
+			}
+			for (int i = 0; i < a.numChildren.get(n); i++) {
+				int c = a.child(n, i);
+				if (a.state[n] == null) {
+					if (!parents.containsKey(c)) parents.put(c, new HashSet<Integer>());
+					parents.get(c).add(n);
+				}
+				if (seen.add(c)) open.push(c);
+			}
+		}
+
+		// Some state was reached by two move orders and kept once
+		int shared = 0;
+		for (Set<Integer> p : parents.values()) if (p.size() > 1) shared++;
+		assertTrue("no shared state nodes among " + nodes.size(), shared > 0);
+		assertEquals(CYCLES, a.visits[root], 0);
+	}
+}
@@ -0,0 +1,129 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.statemachine.Role;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TeapotPropnetCacheTest extends Assert {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = Files.createTempDirectory("propnet-cache").toFile();
+	}
+
+	@After
+	public void deleteDir() {
+		File[] files = dir.listFiles();
+		if (files != null) for (File f : files) f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void testRoundTripOnTicTacToe() throws Exception {
+		assertRoundTrip(TeapotTestNets.rules("ticTacToe"));
+	}
+
+	@Test
+	public void testRoundTripOnConnectFour() throws Exception {
+		assertRoundTrip(TeapotTestNets.rules("connectFour"));
+	}
+
+	@Test
+	public void testMissBeforeStore() throws Exception {
+		assertNull(TeapotPropnetCache.load(dir, TeapotTestNets.rules("ticTacToe")));
+	}
+
+	@Test
+	public void testReorderedRulesHit() throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules("ticTacToe");
+		TeapotPropnetCache.store(dir, rules, TeapotTestNets.build(rules, true));
+
+		List<Gdl> reversed = new ArrayList<>(rules);
+		Collections.reverse(reversed);
+		List<Gdl> reordered = new ArrayList<>();
+		for (Gdl gdl : rules) if (isRole(gdl)) reordered.add(gdl);
+		for (Gdl gdl : reversed) if (!isRole(gdl)) reordered.add(gdl);
+		assertNotNull(TeapotPropnetCache.load(dir, reordered));
+	}
+
+	@Test
+	public void testSwappedRolesMiss() throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules("ticTacToe");
+		TeapotPropnetCache.store(dir, rules, TeapotTestNets.build(rules, true));
+
+		// Same rules with the two role sentences swapped: a different game
+		List<Gdl> swapped = new ArrayList<>(rules);
+		int first = -1;
+		for (int i = 0; i < swapped.size(); i++) {
+			if (!isRole(swapped.get(i))) continue;
+			if (first < 0) {
+				first = i;
+			} else {
+				swapped.set(i, rules.get(first));
+				swapped.set(first, rules.get(i));
+				break;
+			}
+		}
+		assertNull(TeapotPropnetCache.load(dir, swapped));
+	}
+
+	@Test
+	public void testTopologyCachesInGivenDir() throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules("ticTacToe");
+		TeapotPropnetTopology built = TeapotPropnetTopology.create(rules, true, dir);
+		assertEquals(1, dir.listFiles().length);
+
+		TeapotPropnetTopology loaded = TeapotPropnetTopology.create(rules, true, dir);
+		assertEquals(1, dir.listFiles().length);
+		assertEquals(built.numComponents, loaded.numComponents);
+		assertEquals(built.roles, loaded.roles);
+	}
+
+	// MARK: - Helpers
+
+	private void assertRoundTrip(List<Gdl> rules) throws Exception {
+		PropNet fresh = TeapotTestNets.build(rules, true);
+		TeapotPropnetCache.store(dir, rules, fresh);
+		PropNet loaded = TeapotPropnetCache.load(dir, rules);
+		assertNotNull(loaded);
+
+		assertEquals(fresh.getRoles(), loaded.getRoles());
+		assertEquals(TeapotTestNets.census(fresh), TeapotTestNets.census(loaded));
+		assertEquals(fresh.getBasePropositions().keySet(), loaded.getBasePropositions().keySet());
+		assertEquals(fresh.getInputPropositions().keySet(), loaded.getInputPropositions().keySet());
+
+		// Walk both nets through the same moves and compare every transition
+		TeapotTestNets.Simulation a = new TeapotTestNets.Simulation(fresh);
+		TeapotTestNets.Simulation b = new TeapotTestNets.Simulation(loaded);
+		assertEquals(a.state(), b.state());
+		for (int step = 0; step < 12 && !a.terminal(); step++) {
+			assertFalse(b.terminal());
+			List<GdlSentence> moves = new ArrayList<>();
+			for (Role r : fresh.getRoles()) {
+				List<GdlSentence> legal = a.legal(r);
+				assertEquals(legal, b.legal(r));
+				moves.add(legal.get(step % legal.size()));
+			}
+			a.play(moves);
+			b.play(moves);
+			assertEquals(a.state(), b.state());
+		}
+		for (Role r : fresh.getRoles()) assertEquals(a.goals(r), b.goals(r));
+	}
+
+	private static boolean isRole(Gdl gdl) {
+		return gdl instanceof GdlRelation && ((GdlRelation) gdl).getName().getValue().equals("role");
+	}
+}
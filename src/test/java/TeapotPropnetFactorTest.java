@@ -0,0 +1,51 @@
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TeapotPropnetFactorTest extends Assert {
+
+	/** Two counters, each moved only by its own move; only the end joins them **/
+	private static final String TWO_COUNTERS =
+			"(role p) (init (a 0)) (init (b 0)) "
+			+ "(<= (legal p inca) (true (a ?x)) (succ ?x ?y)) (<= (legal p incb) (true (b ?x)) (succ ?x ?y)) "
+			+ "(<= (input p inca)) (<= (input p incb)) "
+			+ "(<= (next (a ?y)) (true (a ?x)) (does p inca) (succ ?x ?y)) (<= (next (a ?x)) (true (a ?x)) (not (does p inca))) "
+			+ "(<= (next (b ?y)) (true (b ?x)) (does p incb) (succ ?x ?y)) (<= (next (b ?x)) (true (b ?x)) (not (does p incb))) "
+			+ "(succ 0 1) (succ 1 2) "
+			+ "(<= done (true (a 2)) (true (b 2))) (<= terminal done) "
+			+ "(<= (goal p 100) done) (<= (goal p 0) (not done))";
+
+	@Test
+	public void testIndependentSubgamesSplit() {
+		TeapotPropnetTopology topology = TeapotPropnetTopology.create(TeapotTestNets.parse(TWO_COUNTERS), true, null);
+		List<TeapotPropnetFactor> factors = TeapotPropnetFactor.analyze(topology);
+		assertEquals(2, factors.size());
+
+		// Each factor holds one counter's bases and the one move that advances it
+		for (TeapotPropnetFactor f : factors) {
+			assertTrue(f.getNumBases() > 0);
+			String counter = null;
+			for (int i = f.bases.nextSetBit(0); i >= 0; i = f.bases.nextSetBit(i + 1)) {
+				String name = topology.basePropositions[i].getName().getBody().get(0).toString();
+				String c = name.substring(name.indexOf('(') + 1).trim().substring(0, 1);
+				if (counter == null) counter = c;
+				assertEquals(counter, c);
+			}
+
+			int numLegals = 0;
+			for (int i = 0; i < topology.legalMoves[0].length; i++) {
+				if (!f.hasLegal(0, i)) continue;
+				assertEquals("inc" + counter, topology.legalMoves[0][i].toString());
+				numLegals++;
+			}
+			assertEquals(1, numLegals);
+		}
+	}
+
+	@Test
+	public void testTicTacToeDoesNotSplit() {
+		TeapotPropnetTopology topology = TeapotPropnetTopology.create(TeapotTestNets.rules("ticTacToe"), true, null);
+		assertEquals(1, TeapotPropnetFactor.analyze(topology).size());
+	}
+}
@@ -0,0 +1,59 @@
+import java.util.BitSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TeapotPropnetLatchesTest extends Assert {
+
+	/** Winning once wins for good; the step counter only ends the game **/
+	private static final String LATCHED_WIN =
+			"(role p) (init (step 0)) "
+			+ "(<= (legal p win)) (<= (legal p wait)) (<= (input p win)) (<= (input p wait)) "
+			+ "(<= (next won) (true won)) (<= (next won) (does p win)) "
+			+ "(<= (next (step ?y)) (true (step ?x)) (succ ?x ?y)) (succ 0 1) (succ 1 2) (succ 2 3) "
+			+ "(<= terminal (true (step 3))) "
+			+ "(<= (goal p 100) (true won)) (<= (goal p 0) (not (true won)))";
+
+	@Test
+	public void testTicTacToeLatches() {
+		TeapotPropnetTopology topology = TeapotPropnetTopology.create(TeapotTestNets.rules("ticTacToe"), true, null);
+		TeapotPropnetLatches latches = TeapotPropnetLatches.analyze(topology);
+
+		// A mark stays, and a blank cell once marked is never blank again
+		int marked = TeapotTestNets.baseIndex(topology, "( true ( cell 1 1 x ) )");
+		assertTrue(marked >= 0);
+		assertTrue(latches.isPositiveLatch(marked));
+		assertFalse(latches.isNegativeLatch(marked));
+
+		int blank = TeapotTestNets.baseIndex(topology, "( true ( cell 2 2 b ) )");
+		assertTrue(blank >= 0);
+		assertTrue(latches.isNegativeLatch(blank));
+		assertFalse(latches.isPositiveLatch(blank));
+
+		// Control passes back and forth
+		int control = TeapotTestNets.baseIndex(topology, "( true ( control xplayer ) )");
+		assertTrue(control >= 0);
+		assertFalse(latches.isPositiveLatch(control));
+		assertFalse(latches.isNegativeLatch(control));
+	}
+
+	@Test
+	public void testGoalLatch() {
+		TeapotPropnetTopology topology = TeapotPropnetTopology.create(TeapotTestNets.parse(LATCHED_WIN), true, null);
+		TeapotPropnetLatches latches = TeapotPropnetLatches.analyze(topology);
+
+		int won = TeapotTestNets.baseIndex(topology, "( true won )");
+		assertTrue(won >= 0);
+		assertTrue(latches.isPositiveLatch(won));
+		assertTrue(latches.hasGoalLatches(0));
+
+		int step = TeapotTestNets.baseIndex(topology, "( true ( step 1 ) )");
+		assertFalse(latches.isPositiveLatch(step));
+
+		BitSet state = new BitSet();
+		state.set(step);
+		assertEquals(-1, latches.decidedGoal(state, 0));
+		state.set(won);
+		assertEquals(100, latches.decidedGoal(state, 0));
+	}
+}
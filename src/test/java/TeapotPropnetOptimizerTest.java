@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.statemachine.Role;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TeapotPropnetOptimizerTest extends Assert {
+
+	private static final int PLAYOUTS = 10;
+	private static final int MAX_DEPTH = 100;
+
+	@Test
+	public void testOptimizerOnTicTacToe() throws Exception {
+		assertSameGame("ticTacToe");
+	}
+
+	@Test
+	public void testOptimizerOnConnectFour() throws Exception {
+		assertSameGame("connectFour");
+	}
+
+	@Test
+	public void testOptimizerOnSimpleMutex() throws Exception {
+		assertSameGame("simpleMutex");
+	}
+
+	@Test
+	public void testOptimizerOnTestCases() throws Exception {
+		assertSameGame("test_case_1a");
+		assertSameGame("test_case_4a");
+		assertSameGame("test_case_5b");
+	}
+
+	@Test
+	public void testOptimizerShrinksTicTacToe() throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules("ticTacToe");
+		int before = TeapotTestNets.build(rules, false).getComponents().size();
+		int after = TeapotTestNets.build(rules, true).getComponents().size();
+		assertTrue(after < before);
+	}
+
+	/**
+	 * Plays the same random playouts on the unoptimized and the optimized
+	 * net, comparing legal moves, terminality, next states and goals.
+	 */
+	private void assertSameGame(String game) throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules(game);
+		PropNet plain = TeapotTestNets.build(rules, false);
+		PropNet optimized = TeapotTestNets.build(rules, true);
+		assertEquals(plain.getRoles(), optimized.getRoles());
+
+		Random random = new Random(game.hashCode());
+		for (int p = 0; p < PLAYOUTS; p++) {
+			TeapotTestNets.Simulation a = new TeapotTestNets.Simulation(plain);
+			TeapotTestNets.Simulation b = new TeapotTestNets.Simulation(optimized);
+			assertEquals(game, a.state(), b.state());
+
+			for (int depth = 0; depth < MAX_DEPTH; depth++) {
+				assertEquals(game + " terminal at " + depth, a.terminal(), b.terminal());
+				for (Role r : plain.getRoles()) assertEquals(game + " goals at " + depth, a.goals(r), b.goals(r));
+				if (a.terminal()) break;
+
+				List<GdlSentence> moves = new ArrayList<>();
+				for (Role r : plain.getRoles()) {
+					List<GdlSentence> legal = a.legal(r);
+					assertEquals(game + " legal moves at " + depth, legal, b.legal(r));
+					if (!legal.isEmpty()) moves.add(legal.get(random.nextInt(legal.size())));
+				}
+				a.play(moves);
+				b.play(moves);
+				assertEquals(game + " state at " + depth, a.state(), b.state());
+			}
+		}
+	}
+}
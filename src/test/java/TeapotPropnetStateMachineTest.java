@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TeapotPropnetStateMachineTest extends Assert {
+
+	@Test
+	public void testPropnetOnTicTacToe() throws Exception {
+		assertPlaysLikeProver("ticTacToe");
+	}
+
+	@Test
+	public void testPropnetOnConnectFour() throws Exception {
+		assertPlaysLikeProver("connectFour");
+	}
+
+	@Test
+	public void testPropnetOnSimpleMutex() throws Exception {
+		assertPlaysLikeProver("simpleMutex");
+	}
+
+	/**
+	 * Not test_case_5b: the factory drops its bodiless (next done), so no
+	 * propnet built from it ever reaches the terminal state.
+	 */
+	@Test
+	public void testPropnetOnTestCases() throws Exception {
+		assertPlaysLikeProver("test_case_1a");
+		assertPlaysLikeProver("test_case_1b");
+		assertPlaysLikeProver("test_case_2a");
+		assertPlaysLikeProver("test_case_4a");
+	}
+
+	/**
+	 * markbases only flips the bases that differ from the loaded state, so
+	 * queries in playout order hide stale bases. Asks about the states of a
+	 * playout again in shuffled order.
+	 */
+	@Test
+	public void testMarkbasesOnRevisitedStates() throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules("connectFour");
+		StateMachine prover = new ProverStateMachine();
+		prover.initialize(rules);
+		TeapotPropnetStateMachine machine = new TeapotPropnetStateMachine();
+		machine.initialize(rules);
+
+		List<MachineState> states = new ArrayList<>();
+		List<MachineState> netStates = new ArrayList<>();
+		MachineState state = prover.getInitialState();
+		MachineState netState = machine.getInitialState();
+		while (!prover.isTerminal(state)) {
+			List<Move> moves = prover.getRandomJointMove(state);
+			state = prover.getNextState(state, moves);
+			netState = machine.getNextState(netState, moves);
+			states.add(state);
+			netStates.add(netState);
+		}
+
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < states.size(); i++) order.add(i);
+		Collections.shuffle(order, new Random(42));
+		for (int i : order) {
+			boolean terminal = prover.isTerminal(states.get(i));
+			assertEquals("terminal at " + i, terminal, machine.isTerminal(netStates.get(i)));
+			for (Role r : prover.getRoles()) {
+				if (terminal) assertEquals("goal at " + i, prover.getGoal(states.get(i), r), machine.getGoal(netStates.get(i), r));
+				else assertEquals("legal moves at " + i, new HashSet<>(prover.getLegalMoves(states.get(i), r)), new HashSet<>(machine.getLegalMoves(netStates.get(i), r)));
+			}
+		}
+	}
+
+	private static void assertPlaysLikeProver(String game) throws Exception {
+		List<Gdl> rules = TeapotTestNets.rules(game);
+		TeapotPropnetStateMachine machine = new TeapotPropnetStateMachine();
+		machine.initialize(rules);
+		TeapotTestNets.assertPlaysLikeProver(game, rules, machine, baseNames(machine));
+	}
+
+	/**
+	 * @return the names of machine's bases, in the order initialize numbered them
+	 */
+	private static List<GdlSentence> baseNames(TeapotPropnetStateMachine machine) {
+		List<GdlSentence> names = new ArrayList<>();
+		for (Proposition p : machine.propnet.getBasePropositions().values()) names.add(p.getName());
+		return names;
+	}
+}
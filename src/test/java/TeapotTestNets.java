@@ -0,0 +1,273 @@
+/**
+ * Test support for the Teapot Propnet classes: builds nets from the test
+ * games the way TeapotPropnetTopology does, and steps a PropNet by plain
+ * recursive evaluation, so nets can be compared by what they compute
+ * rather than by their shape. Also plays state machines against the
+ * prover, which is the reference for what the rules mean.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+
+final class TeapotTestNets {
+
+	private TeapotTestNets() {
+	}
+
+	static List<Gdl> rules(String game) {
+		return new TestGameRepository().getGame(game).getRules();
+	}
+
+	/**
+	 * @return the rules of a rulesheet given inline
+	 */
+	static List<Gdl> parse(String kif) {
+		return Game.createEphemeralGame(Game.preprocessRulesheet(kif)).getRules();
+	}
+
+	/**
+	 * @return the index in topology's states of the base named, e.g.
+	 * "( true ( cell 1 1 x ) )", or -1 if the net has no such base
+	 */
+	static int baseIndex(TeapotPropnetTopology topology, String name) {
+		for (int i = 0; i < topology.basePropositions.length; i++) {
+			if (topology.basePropositions[i].getName().toString().equals(name)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a fresh PropNet for the rules, marked and (optionally) run
+	 * through the standard optimizer as the topology does
+	 */
+	static PropNet build(List<Gdl> rules, boolean optimize) throws InterruptedException {
+		PropNet pn = OptimizingPropNetFactory.create(rules);
+		for (Proposition p : pn.getInputPropositions().values()) p.setInput(true);
+		for (Proposition p : pn.getBasePropositions().values()) p.setBase(true);
+		for (Role r : pn.getRoles()) {
+			for (Proposition p : pn.getLegalPropositions().get(r)) p.setLegal(true);
+			for (Proposition p : pn.getGoalPropositions().get(r)) p.setGoal(true);
+		}
+		if (optimize) TeapotPropnetOptimizer.standard().run(pn);
+		return pn;
+	}
+
+	/**
+	 * @return the number of components of each type, keyed by class name
+	 */
+	static Map<String, Integer> census(PropNet pn) {
+		Map<String, Integer> census = new HashMap<>();
+		for (Component c : pn.getComponents()) {
+			String type = c.getClass().getSimpleName();
+			Integer n = census.get(type);
+			census.put(type, (n == null) ? 1 : n + 1);
+		}
+		return census;
+	}
+
+	// MARK: - Prover Comparison
+
+	private static final int PROVER_PLAYOUTS = 10;
+	private static final int PROVER_MAX_DEPTH = 100;
+
+	/**
+	 * @return the names of topology's bases, in state bit order
+	 */
+	static List<GdlSentence> baseNames(TeapotPropnetTopology topology) {
+		List<GdlSentence> names = new ArrayList<>();
+		for (Proposition p : topology.basePropositions) names.add(p.getName());
+		return names;
+	}
+
+	/**
+	 * Plays seeded random playouts on the prover and replays them on
+	 * machine, comparing legal moves, terminality, goals and every next
+	 * state. baseNames names the bits of machine's states; bases the net
+	 * optimized away are not compared.
+	 */
+	static void assertPlaysLikeProver(String game, List<Gdl> rules, StateMachine machine, List<GdlSentence> baseNames) throws Exception {
+		StateMachine prover = new ProverStateMachine();
+		prover.initialize(rules);
+		List<Role> roles = prover.getRoles();
+		Assert.assertEquals(game, roles, machine.getRoles());
+
+		Random random = new Random(game.hashCode());
+		for (int p = 0; p < PROVER_PLAYOUTS; p++) {
+			MachineState state = prover.getInitialState();
+			MachineState netState = machine.getInitialState();
+
+			for (int depth = 0; depth < PROVER_MAX_DEPTH; depth++) {
+				boolean terminal = prover.isTerminal(state);
+				Assert.assertEquals(game + " terminal at " + depth, terminal, machine.isTerminal(netState));
+				if (terminal) {
+					for (Role r : roles) Assert.assertEquals(game + " goal of " + r + " at " + depth, prover.getGoal(state, r), machine.getGoal(netState, r));
+					break;
+				}
+
+				List<Move> moves = new ArrayList<>();
+				for (Role r : roles) {
+					List<Move> legal = prover.getLegalMoves(state, r);
+					Assert.assertEquals(game + " legal moves of " + r + " at " + depth, new HashSet<>(legal), new HashSet<>(machine.getLegalMoves(netState, r)));
+					moves.add(legal.get(random.nextInt(legal.size())));
+				}
+				state = prover.getNextState(state, moves);
+				netState = machine.getNextState(netState, moves);
+				assertSameState(game + " state at " + (depth + 1), state, netState, baseNames);
+			}
+		}
+	}
+
+	/**
+	 * Checks that each named bit of netState is set exactly when the
+	 * prover's state holds that base.
+	 */
+	static void assertSameState(String message, MachineState state, MachineState netState, List<GdlSentence> baseNames) {
+		Set<GdlSentence> expected = new HashSet<>();
+		Set<GdlSentence> actual = new HashSet<>();
+		for (int i = 0; i < baseNames.size(); i++) {
+			if (state.getContents().contains(baseNames.get(i))) expected.add(baseNames.get(i));
+			if (netState.getPropContents().get(i)) actual.add(baseNames.get(i));
+		}
+		Assert.assertEquals(message, expected, actual);
+	}
+
+	// MARK: - Simulation
+
+	/**
+	 * A PropNet state, held as the names of the true base propositions, and
+	 * everything computed from it with the chosen moves.
+	 */
+	static final class Simulation {
+
+		private final PropNet pn;
+		private final Map<Component, Boolean> memo = new HashMap<>();
+		private Set<GdlSentence> state = Collections.emptySet();
+		private Set<GdlSentence> moves = Collections.emptySet();
+		private boolean init;
+
+		Simulation(PropNet pn) {
+			this.pn = pn;
+			this.init = true;
+			this.state = this.next();
+			this.init = false;
+			this.memo.clear();
+		}
+
+		Set<GdlSentence> state() {
+			return this.state;
+		}
+
+		boolean terminal() {
+			return this.value(this.pn.getTerminalProposition());
+		}
+
+		/**
+		 * @return the names of the legal propositions of r, sorted
+		 */
+		List<GdlSentence> legal(Role r) {
+			return this.trueNames(this.pn.getLegalPropositions().get(r));
+		}
+
+		List<GdlSentence> goals(Role r) {
+			return this.trueNames(this.pn.getGoalPropositions().get(r));
+		}
+
+		/**
+		 * Plays the legal propositions given (one per role) and advances.
+		 */
+		void play(List<GdlSentence> legals) {
+			Set<GdlSentence> does = new HashSet<>();
+			for (Role r : this.pn.getRoles()) {
+				for (Proposition p : this.pn.getLegalPropositions().get(r)) {
+					if (!legals.contains(p.getName())) continue;
+					Proposition input = this.pn.getLegalInputMap().get(p);
+					if (input != null) does.add(input.getName());
+				}
+			}
+			this.moves = does;
+			this.memo.clear();
+			this.state = this.next();
+			this.moves = Collections.emptySet();
+			this.memo.clear();
+		}
+
+		private Set<GdlSentence> next() {
+			Set<GdlSentence> next = new HashSet<>();
+			for (Proposition p : this.pn.getBasePropositions().values()) {
+				if (p.getInputs().isEmpty()) continue;
+				if (this.value(p.getSingleInput().getSingleInput())) next.add(p.getName());
+			}
+			return next;
+		}
+
+		private List<GdlSentence> trueNames(Set<Proposition> props) {
+			Set<String> names = new TreeSet<>();
+			Map<String, GdlSentence> byName = new HashMap<>();
+			for (Proposition p : props) {
+				if (!this.value(p)) continue;
+				names.add(p.getName().toString());
+				byName.put(p.getName().toString(), p.getName());
+			}
+			List<GdlSentence> sorted = new ArrayList<>();
+			for (String name : names) sorted.add(byName.get(name));
+			return sorted;
+		}
+
+		private boolean value(Component c) {
+			Boolean cached = this.memo.get(c);
+			if (cached != null) return cached;
+
+			boolean value;
+			if (c instanceof Proposition) {
+				Proposition p = (Proposition) c;
+				if (p == this.pn.getInitProposition()) value = this.init;
+				else if (this.pn.getBasePropositions().get(p.getName()) == p) value = this.state.contains(p.getName());
+				else if (this.pn.getInputPropositions().get(p.getName()) == p) value = this.moves.contains(p.getName());
+				else value = !p.getInputs().isEmpty() && this.value(p.getSingleInput());
+			} else if (c instanceof Constant) {
+				value = c.getValue();
+			} else if (c instanceof Not) {
+				value = !this.value(c.getSingleInput());
+			} else if (c instanceof And) {
+				value = true;
+				for (Component in : c.getInputs()) value &= this.value(in);
+			} else if (c instanceof Or) {
+				value = false;
+				for (Component in : c.getInputs()) value |= this.value(in);
+			} else if (c instanceof Transition) {
+				value = this.value(c.getSingleInput());
+			} else {
+				throw new IllegalArgumentException("unknown component " + c);
+			}
+			this.memo.put(c, value);
+			return value;
+		}
+	}
+}
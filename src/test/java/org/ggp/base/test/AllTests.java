@@ -14,6 +14,7 @@ import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
 import org.ggp.base.util.http.HttpTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactoryTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
@@ -32,6 +33,7 @@ import org.junit.runners.Suite;
 	HttpTest.class,
 	InfoResponseTest.class,
 	NoTabsInRulesheetsTest.class,
+	OptimizingPropNetFactoryTest.class,
 	ProverStateMachineTest.class,
 	PythonGamerTest.class,
 	SignableJSONTest.class,
@@ -0,0 +1,84 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OptimizingPropNetFactoryTest extends Assert {
+
+    private static final int THREADS = 4;
+    private static final int REPEATS = 3;
+
+    @Test
+    public void testConcurrentBuildOnTicTacToe() throws Exception {
+        assertSameNet("ticTacToe");
+    }
+
+    @Test
+    public void testConcurrentBuildOnConnectFour() throws Exception {
+        assertSameNet("connectFour");
+    }
+
+    @Test
+    public void testConcurrentBuildOnTestCases() throws Exception {
+        assertSameNet("simpleMutex");
+        assertSameNet("test_case_1a");
+        assertSameNet("test_case_2a");
+        assertSameNet("test_case_4a");
+    }
+
+    /**
+     * Builds the game on one thread and then, a few times over, on several,
+     * and compares the components and links of each type and the names of
+     * the propositions.
+     */
+    private static void assertSameNet(String game) throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+        PropNet sequential = OptimizingPropNetFactory.create(rules, false, 1);
+        for (int i = 0; i < REPEATS; i++) {
+            PropNet concurrent = OptimizingPropNetFactory.create(rules, false, THREADS);
+            assertEquals(game + " components", componentCounts(sequential), componentCounts(concurrent));
+            assertEquals(game + " links", linkCounts(sequential), linkCounts(concurrent));
+            assertEquals(game + " propositions", names(sequential), names(concurrent));
+        }
+    }
+
+    private static Map<String, Integer> componentCounts(PropNet pn) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Component c : pn.getComponents()) increment(counts, c.getClass().getSimpleName());
+        return counts;
+    }
+
+    /**
+     * @return the number of links between each pair of component types
+     */
+    private static Map<String, Integer> linkCounts(PropNet pn) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Component c : pn.getComponents()) {
+            for (Component out : c.getOutputs()) increment(counts, c.getClass().getSimpleName() + "->" + out.getClass().getSimpleName());
+        }
+        return counts;
+    }
+
+    private static Set<GdlSentence> names(PropNet pn) {
+        Set<GdlSentence> names = new HashSet<GdlSentence>();
+        for (Proposition p : pn.getPropositions()) names.add(p.getName());
+        return names;
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        Integer n = counts.get(key);
+        counts.put(key, (n == null) ? 1 : n + 1);
+    }
+}